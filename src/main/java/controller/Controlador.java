@@ -3,12 +3,18 @@ package controller;
 import exceptions.AuthenticationError;
 import exceptions.NoAvailableTransport;
 import model.*;
+import persistence.Database;
+import persistence.SaveService;
+import persistence.SnapshotStore;
+import util.Codec;
+import util.ImportStats;
 import util.Parse;
 import view.IO;
 import view.Input;
 
 import java.awt.geom.Point2D;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -17,6 +23,11 @@ public class Controlador {
 
     private IO gui;
     private UMCarroJa model;
+    /* Diário e checkpoints onde as alterações ao modelo são gravadas à medida que acontecem */
+    private Database database;
+    /* Gravações do modelo em segundo plano, em deltas sobre o último snapshot completo */
+    private SaveService saves;
+    private SnapshotStore store;
     /* Conta que está login */
     private String email;
 
@@ -37,11 +48,24 @@ public class Controlador {
     private static final int HYBRID = 3;
 
     private static final String LOG_FILE = "data/logs.bak";
+    private static final String DATABASE_DIRECTORY = "data/journal";
+    /* Codec das gravações, escolhido com -Dumcarroja.codec=DEFLATE (por omissão não são comprimidas) */
+    private static final String CODEC_PROPERTY = "umcarroja.codec";
 
     public Controlador() {
         this.gui = new IO();
         this.model = new UMCarroJa();
         this.email = null;
+        this.saves = new SaveService();
+        this.store = new SnapshotStore(Paths.get(UMCarroJa.DATABASE_PATH), Controlador.codec());
+
+        try {
+            this.database = Database.open(Paths.get(DATABASE_DIRECTORY));
+            this.model = this.database.getModel();
+        } catch (IOException e) {
+            IO.error("Could not open the journal, changes will only be saved on demand: " + e.getMessage());
+            this.database = null;
+        }
     }
 
     public void run() {
@@ -55,26 +79,26 @@ public class Controlador {
                 this.signup();
                 break;
             case IMPORT_DATA:
-                this.model = Parse.importData(LOG_FILE);
+                ImportStats stats = new ImportStats();
+                this.model = Parse.importDataMapped(LOG_FILE, stats);
+                this.replaceModel();
                 IO.info("Imported a total of " + this.model.getSize() + " between transports, clients and owners");
+                IO.info(stats.toString());
                 Input.getEnter();
                 this.run();
                 break;
             case LOAD_DATA:
                 try {
-                    this.model = this.model.load();
-                } catch (ClassNotFoundException | IOException e) {
+                    this.model = this.store.load();
+                    this.replaceModel();
+                } catch (IOException e) {
                     IO.error(e.getMessage());
                 }
                 Input.getEnter();
                 this.run();
                 break;
             case SAVE_DATA:
-                try {
-                    this.model.save();
-                } catch (IOException e) {
-                    IO.error(e.getMessage());
-                }
+                this.save();
                 Input.getEnter();
                 this.run();
                 break;
@@ -90,15 +114,10 @@ public class Controlador {
                 option = this.gui.list("Do you want to save?", IO.opcoesMenuAcceptDecline);
 
                 if (option == 0) { // Accepts
-                    try {
-                        this.model.save();
-
-                    } catch (IOException e) {
-                        IO.error("Saving was not possible: " + e.getMessage());
-                    }
+                    this.save();
                 }
 
-                System.exit(0);
+                this.exit();
                 break;
         }
     }
@@ -208,7 +227,7 @@ public class Controlador {
                 this.login();
                 break;
             case EXIT:
-                System.exit(0);
+                this.exit();
                 break;
         }
     }
@@ -253,35 +272,42 @@ public class Controlador {
                                         , rnt.getClient()
                                 );
 
-                                Point2D.Double origin = this.model.getClient(rnt.getClient()).getPosition();
+                                Point2D.Double origin = this.model.viewClient(rnt.getClient()).getPosition();
 
                                 // TODO: Ao criar aluguer, o tipo de combustivel não existe maneira de o descobrir
                                 Aluguer aluguer = new Aluguer(rnt.getNifCliente(), rnt.getClient()
                                         , origin, rnt.getDestination()
-                                        , origin.distance(rnt.getDestination()) * this.model.getTransport(rnt.getId()).getPriceKm()
+                                        , origin.distance(rnt.getDestination()) * this.model.viewTransport(rnt.getId()).getPriceKm()
                                         , "Combustivel", rnt.getMode()
                                 );
 
-                                if (!this.model.getTransport(rnt.getId()).hasAutonomy(rnt.getDestination())) {
+                                if (!this.model.viewTransport(rnt.getId()).hasAutonomy(rnt.getDestination())) {
                                     option = this.gui.list("Your transport doens't have enough autonomy. Do you want to refill?", IO.opcoesMenuAcceptDecline);
                                     if (option == 0) this.model.refillTransport(rnt.getId());
-                                    else notification.setStatus(-1);
+                                    else {
+                                        this.model.releaseReservation(rnt.getId(), rnt.getClient());
+                                        notification.setStatus(-1);
+                                    }
                                 }
 
                                 if (option == 0) { // Isto quer dizer ou que não foi preciso fazer refill ou então ele aceitou fazer
-                                    this.model.addAluguerToClient(aluguer, rnt.getClient());
-                                    this.model.addAluguerToOwner(aluguer, this.email);
-                                    this.model.addAluguerToTransport(aluguer, rnt.getId());
-
-                                    // Mover o client para o destino
-                                    this.model.updateLocationClient(rnt.getClient(), rnt.getDestination());
-
-                                    // Mover o carro até ao origen e depois para o destino
-                                    this.model.updateLocationTransport(rnt.getId(), aluguer.getOrigin(), aluguer.getDestination());
-
-                                    notification.setStatus(1);
+                                    // Mover o carro até ao origen e depois para o destino, se o carro ainda estiver livre para o cliente
+                                    if (this.model.commitReservation(rnt.getId(), rnt.getClient(), aluguer.getOrigin(), aluguer.getDestination())) {
+                                        this.model.addAluguerToClient(aluguer, rnt.getClient());
+                                        this.model.addAluguerToOwner(aluguer, this.email);
+                                        this.model.addAluguerToTransport(aluguer, rnt.getId());
+
+                                        // Mover o client para o destino
+                                        this.model.updateLocationClient(rnt.getClient(), rnt.getDestination());
+
+                                        notification.setStatus(1);
+                                    } else {
+                                        IO.error("The transport " + rnt.getId() + " is no longer available for " + rnt.getClient() + ".");
+                                        notification.setStatus(-1);
+                                    }
                                 }
                             } else { // Decline
+                                this.model.releaseReservation(((RentNotification) notification).getId(), ((RentNotification) notification).getClient());
                                 notification.setStatus(-1);
                             }
                         }
@@ -299,12 +325,28 @@ public class Controlador {
                 this.gui.displayTable(this.model.getTotalTransportIncome(registration, begin, end), "Total Income from Transport");
                 this.owner();
                 break;
-            case 5: // Logout
+            case 5: // Owner total income
+                begin = Input.getDate("Please, type the begin date.").atStartOfDay();
+                end = Input.getDate("Please, type the end date.").atTime(23, 59);
+                this.gui.displayTable(this.model.getTotalOwnerIncome(this.email, begin, end), "Total Income from " + this.email);
+                this.owner();
+                break;
+            case 6: // Change transport price
+                this.gui.displayTable(this.model.getTransportsFromOwner(this.email), "List of Transports form " + this.email);
+                String plate = Input.getRegistrationPlate();
+                if (this.model.existsTransport(plate) && this.model.getTransport(plate).getEmail().equals(this.email)) {
+                    this.model.changeTransportPriceKm(plate, Input.getTransportPriceKm());
+                } else {
+                    IO.error("Requested transport doesn't exist or isn't yours.");
+                }
+                this.owner();
+                break;
+            case 7: // Logout
                 this.email = null;
                 this.login();
                 break;
             case EXIT:
-                System.exit(0);
+                this.exit();
                 break;
         }
     }
@@ -333,9 +375,9 @@ public class Controlador {
                     switch (option) {
                         case 1: // Rent the closest car
                             if (typeofcar == HYBRID) { // Hybrid
-                                transport = this.model.getClosestCarHybrid(this.email);
+                                transport = this.model.reserve(this.email, this.model::getClosestCarHybrid);
                             } else { // Eletric || Gasoline
-                                transport = this.model.getClosestCarNormal(this.email);
+                                transport = this.model.reserve(this.email, this.model::getClosestCarNormal);
                             }
 
                             rentNotification = this.model.getTransportRentNotification(this.email, transport.getId(), "MaisPerto", destination);
@@ -347,13 +389,15 @@ public class Controlador {
                                 this.model.addNotificationToOwner(rentNotification, transport.getEmail());
                                 IO.info("Wait for the owner " + transport.getEmail() + " to accept your order for the transport " + transport.getId());
                                 Input.getEnter();
+                            } else {
+                                this.model.releaseReservation(transport.getId(), this.email);
                             }
                             break;
                         case 2: // Rent the cheapest car
                             if (typeofcar == HYBRID) { // Hybrid
-                                transport = this.model.getCheapestCarHybrid(this.email);
+                                transport = this.model.reserve(this.email, e -> this.model.getCheapestCarHybrid());
                             } else { // Eletric || Gasoline
-                                transport = this.model.getCheapestCarNormal(this.email);
+                                transport = this.model.reserve(this.email, e -> this.model.getCheapestCarNormal());
                             }
 
                             rentNotification = this.model.getTransportRentNotification(this.email, transport.getId(), "MaisPerto", destination);
@@ -365,15 +409,17 @@ public class Controlador {
                                 this.model.addNotificationToOwner(rentNotification, transport.getEmail());
                                 IO.info("Wait for the owner " + transport.getEmail() + " to accept your order for the transport " + transport.getId());
                                 Input.getEnter();
+                            } else {
+                                this.model.releaseReservation(transport.getId(), this.email);
                             }
                             break;
                         case 3: // Rent the cheapest car within foot range
                             System.out.print("How far are you willing to walk (in kms)? ");
                             double walk = Input.getDouble();
                             if (typeofcar == HYBRID) { // Hybrid
-                                transport = this.model.getCheapestCarHybridInWalkRange(this.email, walk);
+                                transport = this.model.reserve(this.email, e -> this.model.getCheapestCarHybridInWalkRange(e, walk));
                             } else { // 1 Eletric || 2 Gasoline
-                                transport = this.model.getCheapestCarNormalInWalkRange(this.email, walk);
+                                transport = this.model.reserve(this.email, e -> this.model.getCheapestCarNormalInWalkRange(e, walk));
                             }
 
                             rentNotification = this.model.getTransportRentNotification(this.email, transport.getId(), "MaisPerto", destination);
@@ -385,6 +431,8 @@ public class Controlador {
                                 this.model.addNotificationToOwner(rentNotification, transport.getEmail());
                                 IO.info("Wait for the owner " + transport.getEmail() + " to accept your order for the transport " + transport.getId());
                                 Input.getEnter();
+                            } else {
+                                this.model.releaseReservation(transport.getId(), this.email);
                             }
                             break;
                         case 4: // Rent a specific car
@@ -401,7 +449,8 @@ public class Controlador {
                                 this.gui.displayTable(cars, "List of Avaible Transports");
                                 do {
                                     registration = Input.getRegistrationPlate();
-                                    if (this.model.existsTransport(registration) && this.model.getTransport(registration).isAvailable())
+                                    if (this.model.existsTransport(registration) && this.model.viewTransport(registration).isAvailable()
+                                            && this.model.reserveTransport(registration, this.email))
                                         valid = true;
                                     else
                                         IO.error("Requested transport is not available or doesn't exist.");
@@ -418,6 +467,8 @@ public class Controlador {
                                     this.model.addNotificationToOwner(rentNotification, transport.getEmail());
                                     IO.info("Wait for the owner " + transport.getEmail() + " to accept your order for the transport " + transport.getId());
                                     Input.getEnter();
+                                } else {
+                                    this.model.releaseReservation(transport.getId(), this.email);
                                 }
                             } else {
                                 IO.error("No avaible transports.\nPlease, try again later.");
@@ -430,16 +481,17 @@ public class Controlador {
                             valid = false;
 
                             if (typeofcar == HYBRID) { // Hybrid
-                                list = this.model.getAvaibleTransportsByDesiredAutonomy(this.model.getCarsHybrid(), autonomy);
+                                list = this.model.getAvaibleCarsHybridByDesiredAutonomy(autonomy);
                             } else { // 1 Eletric || 2 Gasoline
-                                list = this.model.getAvaibleTransportsByDesiredAutonomy(this.model.getCarsNormal(), autonomy);
+                                list = this.model.getAvaibleCarsNormalByDesiredAutonomy(autonomy);
                             }
 
                             if (list.size() != 0) {
                                 this.gui.displayTable(list, "List of Avaible Transports with desired Autonomy");
                                 do {
                                     registration = Input.getRegistrationPlate();
-                                    if (this.model.existsTransport(registration) && this.model.getTransport(registration).isAvailable())
+                                    if (this.model.existsTransport(registration) && this.model.viewTransport(registration).isAvailable()
+                                            && this.model.reserveTransport(registration, this.email))
                                         valid = true;
                                     else
                                         IO.error("Requested transport is not available or doesn't exist.");
@@ -456,6 +508,8 @@ public class Controlador {
                                     this.model.addNotificationToOwner(rentNotification, transport.getEmail());
                                     IO.info("Wait for the owner " + transport.getEmail() + " to accept your order for the transport " + transport.getId());
                                     Input.getEnter();
+                                } else {
+                                    this.model.releaseReservation(transport.getId(), this.email);
                                 }
                             } else {
                                 IO.error("No available transports with desired autonomy.\nPlease, try again later.");
@@ -500,9 +554,9 @@ public class Controlador {
 
                 if (option == ELETRIC || option == GASOLINE) { // Eletric or Gasoline
                     // TODO: distinguir carros eletricos de carros a gasolina
-                    transport = new Car(brand, registration, this.model.getOwner(this.email).getNif(), this.email, avgVel, priceKm, consume, capacity, position);
+                    transport = new Car(brand, registration, this.model.viewOwner(this.email).getNif(), this.email, avgVel, priceKm, consume, capacity, position);
                 } else { // Hybrid
-                    transport = new Hybrid(brand, registration, this.model.getOwner(this.email).getNif(), this.email, avgVel, priceKm, consume, capacity, position);
+                    transport = new Hybrid(brand, registration, this.model.viewOwner(this.email).getNif(), this.email, avgVel, priceKm, consume, capacity, position);
                 }
 
                 this.model.addTransport(transport);
@@ -510,4 +564,64 @@ public class Controlador {
                 Input.getEnter();
         }
     }
+
+    /**
+     * Grava o modelo em segundo plano, mostrando o resultado quando a gravação termina
+     */
+    private void save() {
+        try {
+            if (this.database != null) this.database.sync();
+        } catch (IOException e) {
+            IO.error("Saving was not possible: " + e.getMessage());
+        }
+
+        IO.info("Saving in the background to " + UMCarroJa.DATABASE_PATH);
+        this.saves.save(this.store, this.model).whenComplete((result, e) -> {
+            if (e == null) IO.info(result.toString());
+            else IO.error("Saving was not possible: " + (e.getCause() == null ? e : e.getCause()).getMessage());
+        });
+    }
+
+    /**
+     * Espera pelas gravações em curso, fecha o diário, gravando as alterações pendentes, e termina a aplicação
+     */
+    private void exit() {
+        this.saves.close();
+        if (this.database != null) {
+            try {
+                this.database.close();
+            } catch (IOException e) {
+                IO.error("Saving was not possible: " + e.getMessage());
+            }
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * @return Codec indicado na propriedade CODEC_PROPERTY, ou NONE se não houver nenhum com esse nome
+     */
+    private static Codec codec() {
+        String name = System.getProperty(CODEC_PROPERTY, Codec.NONE.name());
+
+        try {
+            return Codec.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            IO.error("Unknown codec " + name + ", saves will not be compressed");
+            return Codec.NONE;
+        }
+    }
+
+    /**
+     * Passa a registar no diário o modelo atual, que substitui o anterior
+     */
+    private void replaceModel() {
+        if (this.database == null) return;
+
+        try {
+            this.database.replace(this.model);
+        } catch (IOException e) {
+            IO.error("Saving was not possible: " + e.getMessage());
+        }
+    }
 }
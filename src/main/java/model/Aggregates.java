@@ -0,0 +1,63 @@
+package model;
+
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Totais mantidos à medida que os históricos de User e Transport crescem (quilómetros percorridos,
+ * soma das classificações, em RatingStore), para não os recalcular sobre todo o histórico a cada uso.
+ * <p>
+ * Com a verificação ligada, cada total é comparado com o recálculo sobre todo o histórico sempre que
+ * é usado, e uma diferença lança IllegalStateException. Está desligada por omissão; liga-se com
+ * -Dumcarroja.verifyAggregates=true (como nos testes) ou com setVerification.
+ */
+public final class Aggregates {
+    private static final double TOLERANCE = 1e-9;
+
+    private static volatile boolean verification = Boolean.getBoolean("umcarroja.verifyAggregates");
+
+    private Aggregates() {
+    }
+
+    public static boolean isVerification() {
+        return Aggregates.verification;
+    }
+
+    public static void setVerification(boolean verification) {
+        Aggregates.verification = verification;
+    }
+
+    /**
+     * Permite obter os quilómetros percorridos num conjunto de alugueres, percorrendo-os todos
+     *
+     * @param rents Alugueres
+     * @return Soma das distâncias entre a origem e o destino de cada aluguer
+     */
+    static double kms(List<Aluguer> rents) {
+        double totalKm = 0;
+        for (Aluguer l : rents)
+            totalKm += l.getOrigin().distance(l.getDestination());
+        return totalKm;
+    }
+
+    /**
+     * Devolve um total mantido incrementalmente, comparando-o antes com o recálculo se a verificação
+     * estiver ligada. A mensagem de erro só é construída se os valores diferirem.
+     *
+     * @param name  Nome do total, para a mensagem de erro
+     * @param owner Identificador da entidade a que o total pertence, para a mensagem de erro
+     * @param total Total mantido
+     * @param full  Recálculo do total
+     * @return Total mantido
+     * @throws IllegalStateException se a verificação estiver ligada e os valores diferirem
+     */
+    static double check(String name, String owner, double total, DoubleSupplier full) {
+        if (Aggregates.verification) {
+            double expected = full.getAsDouble();
+            if (Math.abs(expected - total) > TOLERANCE * Math.max(1, Math.abs(expected))) {
+                throw new IllegalStateException(name + " of " + owner + " is " + total + " but should be " + expected);
+            }
+        }
+        return total;
+    }
+}
@@ -116,6 +116,36 @@ public class Aluguer implements Serializable {
         this.preferencia = "";
     }
 
+    /**
+     * Construtor parametrizado com todo o estado de um aluguer, usado ao carregar o modelo
+     *
+     * @param nifCliente  NIF do cliente
+     * @param email       Email do cliente
+     * @param time        Instante do aluguer
+     * @param price       Preço cobrado
+     * @param origin      Sítio de partida
+     * @param destination Sítio destino
+     * @param combustivel Combustível pretendido
+     * @param preferencia Preferência do cliente
+     */
+    public Aluguer(int nifCliente,
+                   String email,
+                   LocalDateTime time,
+                   double price,
+                   Point2D.Double origin,
+                   Point2D.Double destination,
+                   String combustivel,
+                   String preferencia) {
+        this.nifCliente = nifCliente;
+        this.email = email;
+        this.time = time;
+        this.price = price;
+        this.origin = origin;
+        this.destination = destination;
+        this.combustivel = combustivel;
+        this.preferencia = preferencia;
+    }
+
     /**
      * Construtor por cópia
      *
@@ -0,0 +1,101 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+public class AvailabilityScheduler {
+
+    /**
+     * Variáveis de instância
+     */
+    private PriorityQueue<Entry> queue;
+    private Map<String, Entry> busy;
+
+    /**
+     * Construtor por omissão
+     */
+    public AvailabilityScheduler() {
+        this.queue = new PriorityQueue<>();
+        this.busy = new HashMap<>();
+    }
+
+    /**
+     * Permite obter o número de transportes ocupados
+     *
+     * @return Número de transportes ocupados
+     */
+    public synchronized int size() {
+        return this.busy.size();
+    }
+
+    /**
+     * Permite verificar se um transporte está ocupado
+     *
+     * @param id Identificador do transporte
+     * @return 'true' se o transporte estiver à espera de ficar disponível ou 'false' caso contrário
+     */
+    public synchronized boolean isBusy(String id) {
+        return this.busy.containsKey(id);
+    }
+
+    /**
+     * Permite agendar um transporte ocupado para ficar disponível no seu instante 'availableAt'
+     *
+     * @param transport Transporte ocupado
+     */
+    public synchronized void schedule(Transport transport) {
+        Entry entry = new Entry(transport);
+        this.busy.put(transport.getId(), entry);
+        this.queue.add(entry);
+    }
+
+    /**
+     * Permite cancelar o agendamento de um transporte. A entrada na fila é descartada
+     * apenas quando chegar ao topo.
+     *
+     * @param id Identificador do transporte
+     */
+    public synchronized void remove(String id) {
+        this.busy.remove(id);
+    }
+
+    /**
+     * Permite retirar da fila todos os transportes que já estão disponíveis num dado instante
+     *
+     * @param now Instante de referência
+     * @return Lista dos transportes que ficaram disponíveis
+     */
+    public synchronized List<Transport> release(LocalDateTime now) {
+        List<Transport> ret = new ArrayList<>();
+
+        while (!this.queue.isEmpty() && this.queue.peek().availableAt.isBefore(now)) {
+            Entry entry = this.queue.poll();
+            if (this.busy.get(entry.transport.getId()) == entry) {
+                this.busy.remove(entry.transport.getId());
+                ret.add(entry.transport);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Entrada da fila: guarda o instante em que foi agendada, para que a ordem da fila
+     * não dependa de alterações posteriores ao transporte
+     */
+    private static class Entry implements Comparable<Entry> {
+        private Transport transport;
+        private LocalDateTime availableAt;
+
+        private Entry(Transport transport) {
+            this.transport = transport;
+            this.availableAt = transport.getAvailableAt();
+        }
+
+        @Override
+        public int compareTo(Entry e) {
+            int r = this.availableAt.compareTo(e.availableAt);
+            return r != 0 ? r : this.transport.getId().compareTo(e.transport.getId());
+        }
+    }
+}
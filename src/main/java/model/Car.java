@@ -3,6 +3,7 @@ package model;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 public class Car extends Transport implements Serializable {
 
@@ -55,6 +56,23 @@ public class Car extends Transport implements Serializable {
         this.consumoPercentage = consumo;
     }
 
+    /**
+     * Construtor parametrizado com todo o estado de um carro, usado ao carregar o modelo
+     *
+     * @param marca             Marca do carro
+     * @param consumoPercentage Consumo (percentagem) do carro
+     * @see Transport#Transport(String, int, String, Point2D.Double, double, double, double, double, double, List, List, LocalDateTime)
+     */
+    public Car(String marca, double consumoPercentage,
+               String id, int nifDono, String email, Point2D.Double position, double autonomy,
+               double capacity, double avgVelocity, double rating, double priceKm,
+               List<Aluguer> alugueres, RatingStore classificacoes, LocalDateTime availableAt) {
+        super(id, nifDono, email, position, autonomy, capacity, avgVelocity, rating, priceKm,
+                alugueres, classificacoes, availableAt);
+        this.marca = marca;
+        this.consumoPercentage = consumoPercentage;
+    }
+
     /**
      * Construtor por cópia
      *
@@ -159,13 +177,14 @@ public class Car extends Transport implements Serializable {
      *
      * @param origin      Onde vai ter de ir ter com o cliente
      * @param destination Destino
+     * @param departure   Instante da partida
      */
-    public void moveTransport(Point2D.Double origin, Point2D.Double destination) {
+    public void moveTransport(Point2D.Double origin, Point2D.Double destination, LocalDateTime departure) {
         double distance = this.getPosition().distance(origin) + origin.distance(destination);
         double spentFuelPercentage = distance * this.getConsumoPercentage();
         double timeSpentOnTravel = distance / this.getAvgVelocity(); // em horas
         this.setAutonomy(this.getAutonomy() - spentFuelPercentage);
-        this.setAvailableAt(LocalDateTime.now().plusHours((long) timeSpentOnTravel));
+        this.setAvailableAt(departure.plusHours((long) timeSpentOnTravel));
         this.setPosition(destination);
     }
 }
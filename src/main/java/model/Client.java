@@ -4,6 +4,8 @@ import exceptions.NoAvailableTransport;
 
 import java.awt.geom.Point2D;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.List;
 import java.util.Set;
 
 public class Client extends User implements Serializable {
@@ -65,6 +67,19 @@ public class Client extends User implements Serializable {
         this.position.setLocation(positionX, positionY);
     }
 
+    /**
+     * Construtor parametrizado com todo o estado de um cliente, usado ao carregar o modelo
+     *
+     * @param position Localização do cliente
+     * @see User#User(String, int, String, String, String, LocalDate, double, List, List, List)
+     */
+    public Client(String name, int nif, String email, String address, String hashedPassword, LocalDate birthday,
+                  double rating, List<Aluguer> rents, List<Notification> pendingTasks, RatingStore classificacoes,
+                  Point2D.Double position) {
+        super(name, nif, email, address, hashedPassword, birthday, rating, rents, pendingTasks, classificacoes);
+        this.position = position;
+    }
+
     /**
      * Permite obter a localização do cliente
      *
@@ -0,0 +1,14 @@
+package model;
+
+import java.util.Comparator;
+
+public class CompareByPrice implements Comparator<Transport> {
+
+    public int compare(Transport a, Transport b)
+    {
+        int r = Double.compare(a.getPriceKm(), b.getPriceKm());
+        if (r != 0) return r;
+        else return a.getId().compareTo(b.getId());
+    }
+
+}
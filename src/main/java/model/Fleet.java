@@ -0,0 +1,119 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transportes do modelo, cada um com um identificador denso (a sua posição na frota), e as posições que
+ * ocupam nas colunas (ver FleetStore). Os filtros sobre toda a frota percorrem essas posições lendo só as
+ * colunas; os objetos Transport só são consultados para os que passam no filtro.
+ * <p>
+ * Como as colunas são o estado dos transportes, só é preciso atualizar a frota quando um transporte é
+ * acrescentado ou substituído por outra instância. As pesquisas podem ser concorrentes com as atualizações
+ * e ver o estado anterior de um transporte.
+ */
+public class Fleet {
+
+    /**
+     * Variáveis de instância
+     */
+    private final FleetStore columns;
+    private final Map<String, Integer> indexes;
+    private Transport[] transports;
+    private int[] slots;
+    /* Publicado depois de os arrays terem espaço para os novos transportes */
+    private volatile int size;
+
+    /**
+     * Construtor por omissão
+     */
+    public Fleet() {
+        this.columns = FleetStore.shared();
+        this.indexes = new ConcurrentHashMap<>();
+        this.transports = new Transport[64];
+        this.slots = new int[64];
+        this.size = 0;
+    }
+
+    /**
+     * Permite obter o número de transportes da frota
+     *
+     * @return Número de transportes
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Permite acrescentar um transporte à frota ou, caso já exista um com a mesma matrícula, substituí-lo
+     *
+     * @param transport Transporte
+     */
+    public synchronized void update(Transport transport) {
+        Integer index = this.indexes.get(transport.getId());
+        int i = index == null ? this.size : index;
+
+        if (i == this.transports.length) {
+            this.transports = Arrays.copyOf(this.transports, 2 * i);
+            this.slots = Arrays.copyOf(this.slots, 2 * i);
+        }
+
+        this.slots[i] = transport.slot();
+        this.transports[i] = transport;
+
+        if (index == null) {
+            this.indexes.put(transport.getId(), i);
+            this.size = i + 1;
+        }
+    }
+
+    /**
+     * Permite obter os transportes de um tipo
+     *
+     * @param type Tipo (FleetStore.CAR ou FleetStore.HYBRID)
+     * @return Transportes da frota desse tipo
+     */
+    public List<Transport> ofType(byte type) {
+        int size = this.size;
+        int[] slots = this.slots;
+        Transport[] transports = this.transports;
+        List<Transport> ret = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            if (this.columns.type(slots[i]) == type) ret.add(transports[i]);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Permite obter os transportes disponíveis de um tipo com pelo menos uma dada autonomia
+     *
+     * @param type        Tipo (FleetStore.CAR ou FleetStore.HYBRID)
+     * @param now         Instante antes do qual o transporte tem de estar disponível
+     * @param minAutonomy Autonomia mínima
+     * @return Transportes que satisfazem as condições, pela ordem em que entraram na frota
+     */
+    public List<Transport> available(byte type, LocalDateTime now, double minAutonomy) {
+        int size = this.size;
+        int[] slots = this.slots;
+        Transport[] transports = this.transports;
+        long second = FleetStore.epochSecond(now);
+        int nano = now.getNano();
+        List<Transport> ret = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            int slot = slots[i];
+            if (this.columns.type(slot) == type && this.columns.autonomy(slot) >= minAutonomy
+                    && this.columns.isAvailableBefore(slot, second, nano)) {
+                ret.add(transports[i]);
+            }
+        }
+
+        return ret;
+    }
+}
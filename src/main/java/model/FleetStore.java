@@ -0,0 +1,197 @@
+package model;
+
+import java.lang.ref.Cleaner;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Estado dos transportes guardado por colunas: posição (x e y), preço por quilómetro, autonomia, instante
+ * em que fica disponível e tipo. Cada instância de Transport ocupa uma posição (slot) das colunas desde que
+ * é criada e lê e escreve estes campos diretamente nela, pelo que as colunas são o estado do transporte e não
+ * uma cópia. As pesquisas que percorrem muitos transportes (a frota, as células da grelha, os índices por
+ * preço) leem assim valores primitivos consecutivos em vez de seguirem referências por todo o heap.
+ * <p>
+ * Cada cópia de um transporte ocupa a sua própria posição, para que as cópias (e os snapshots do modelo)
+ * continuem independentes. A posição é libertada, e reutilizada por outro transporte, quando a instância
+ * deixa de ser usada.
+ * <p>
+ * As colunas estão divididas em páginas de PAGE_SIZE posições que nunca mudam de lugar: acrescentar uma
+ * página não copia as anteriores, pelo que uma escrita nunca se perde numa cópia feita em paralelo.
+ * O acesso a cada posição está sujeito às mesmas regras do transporte que a ocupa.
+ * <p>
+ * As colunas ficam no heap (HeapFleetStore) ou, com -Dumcarroja.fleet=offheap, fora dele (OffHeapFleetStore).
+ */
+public abstract class FleetStore {
+
+    public static final byte CAR = 0;
+    public static final byte HYBRID = 1;
+    public static final String BACKEND_PROPERTY = "umcarroja.fleet";
+
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+    /* Segundo guardado para os transportes disponíveis desde sempre (sem instante de disponibilidade) */
+    static final long ALWAYS = Long.MIN_VALUE;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Variáveis de instância
+     */
+    private int next;
+    private int[] free;
+    private int freeCount;
+
+    /**
+     * Construtor por omissão
+     */
+    FleetStore() {
+        this.next = 0;
+        this.free = new int[16];
+        this.freeCount = 0;
+    }
+
+    /**
+     * @return Colunas partilhadas por todos os transportes, no heap ou fora dele conforme a propriedade
+     * BACKEND_PROPERTY (lida quando são usadas pela primeira vez)
+     */
+    static FleetStore shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * @return Tipo de um transporte, tal como guardado na coluna dos tipos
+     */
+    public static byte typeOf(Transport transport) {
+        return transport instanceof Hybrid ? HYBRID : CAR;
+    }
+
+    /**
+     * Reserva uma posição para um transporte, libertada quando o transporte deixar de ser usado
+     *
+     * @param owner Transporte que ocupa a posição
+     * @param type  Tipo do transporte
+     * @return Posição reservada
+     */
+    int allocate(Object owner, byte type) {
+        int slot = this.allocate(type);
+        CLEANER.register(owner, new Release(this, slot));
+        return slot;
+    }
+
+    /**
+     * Reserva uma posição, que só é libertada por free
+     */
+    synchronized int allocate(byte type) {
+        int slot;
+
+        if (this.freeCount > 0) {
+            slot = this.free[--this.freeCount];
+        } else {
+            slot = this.next++;
+            if ((slot & PAGE_MASK) == 0) this.addPage(slot >>> PAGE_BITS);
+        }
+
+        this.setType(slot, type);
+        return slot;
+    }
+
+    /**
+     * Liberta uma posição, para ser reutilizada
+     */
+    synchronized void free(int slot) {
+        if (this.freeCount == this.free.length) this.free = Arrays.copyOf(this.free, 2 * this.freeCount);
+        this.free[this.freeCount++] = slot;
+    }
+
+    /**
+     * @return Número de posições ocupadas
+     */
+    synchronized int allocated() {
+        return this.next - this.freeCount;
+    }
+
+    /**
+     * @return Instante em que o transporte de uma posição fica disponível ('null' se estiver disponível desde sempre)
+     */
+    LocalDateTime availableAt(int slot) {
+        long second = this.availableSecond(slot);
+        return second == ALWAYS ? null : LocalDateTime.ofEpochSecond(second, this.availableNano(slot), ZoneOffset.UTC);
+    }
+
+    void setAvailableAt(int slot, LocalDateTime time) {
+        this.setAvailable(slot, FleetStore.epochSecond(time), time == null ? 0 : time.getNano());
+    }
+
+    /**
+     * Permite saber se o transporte de uma posição está disponível estritamente antes de um instante
+     *
+     * @param second Segundo do instante (ver epochSecond)
+     * @param nano   Nanossegundos do instante
+     */
+    boolean isAvailableBefore(int slot, long second, int nano) {
+        long available = this.availableSecond(slot);
+        return available < second || available == second && this.availableNano(slot) < nano;
+    }
+
+    /**
+     * @return Segundos desde 1970 (em UTC) de um instante, ou ALWAYS se for 'null'
+     */
+    static long epochSecond(LocalDateTime time) {
+        return time == null ? ALWAYS : time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Acrescenta às colunas a página com um dado número
+     */
+    abstract void addPage(int page);
+
+    abstract double x(int slot);
+
+    abstract double y(int slot);
+
+    abstract double priceKm(int slot);
+
+    abstract double autonomy(int slot);
+
+    abstract long availableSecond(int slot);
+
+    abstract int availableNano(int slot);
+
+    abstract byte type(int slot);
+
+    abstract void setPosition(int slot, double x, double y);
+
+    abstract void setPriceKm(int slot, double priceKm);
+
+    abstract void setAutonomy(int slot, double autonomy);
+
+    abstract void setAvailable(int slot, long second, int nano);
+
+    abstract void setType(int slot, byte type);
+
+    /**
+     * Liberta a posição de um transporte que deixou de ser usado; não pode referir o transporte
+     */
+    private static class Release implements Runnable {
+        private final FleetStore store;
+        private final int slot;
+
+        private Release(FleetStore store, int slot) {
+            this.store = store;
+            this.slot = slot;
+        }
+
+        @Override
+        public void run() {
+            this.store.free(this.slot);
+        }
+    }
+
+    private static class Shared {
+        private static final FleetStore INSTANCE =
+                System.getProperty(BACKEND_PROPERTY, "heap").equalsIgnoreCase("offheap")
+                        ? new OffHeapFleetStore() : new HeapFleetStore();
+    }
+}
@@ -0,0 +1,104 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Colunas em arrays de primitivos paralelos, um conjunto por página
+ */
+final class HeapFleetStore extends FleetStore {
+
+    /**
+     * Variáveis de instância
+     */
+    private volatile Page[] pages;
+
+    /**
+     * Construtor por omissão
+     */
+    HeapFleetStore() {
+        this.pages = new Page[16];
+    }
+
+    @Override
+    void addPage(int page) {
+        Page[] pages = this.pages;
+        if (page == pages.length) pages = Arrays.copyOf(pages, 2 * page);
+        pages[page] = new Page();
+        this.pages = pages;
+    }
+
+    @Override
+    double x(int slot) {
+        return this.pages[slot >>> PAGE_BITS].x[slot & PAGE_MASK];
+    }
+
+    @Override
+    double y(int slot) {
+        return this.pages[slot >>> PAGE_BITS].y[slot & PAGE_MASK];
+    }
+
+    @Override
+    double priceKm(int slot) {
+        return this.pages[slot >>> PAGE_BITS].priceKm[slot & PAGE_MASK];
+    }
+
+    @Override
+    double autonomy(int slot) {
+        return this.pages[slot >>> PAGE_BITS].autonomy[slot & PAGE_MASK];
+    }
+
+    @Override
+    long availableSecond(int slot) {
+        return this.pages[slot >>> PAGE_BITS].availableSecond[slot & PAGE_MASK];
+    }
+
+    @Override
+    int availableNano(int slot) {
+        return this.pages[slot >>> PAGE_BITS].availableNano[slot & PAGE_MASK];
+    }
+
+    @Override
+    byte type(int slot) {
+        return this.pages[slot >>> PAGE_BITS].type[slot & PAGE_MASK];
+    }
+
+    @Override
+    void setPosition(int slot, double x, double y) {
+        Page page = this.pages[slot >>> PAGE_BITS];
+        page.x[slot & PAGE_MASK] = x;
+        page.y[slot & PAGE_MASK] = y;
+    }
+
+    @Override
+    void setPriceKm(int slot, double priceKm) {
+        this.pages[slot >>> PAGE_BITS].priceKm[slot & PAGE_MASK] = priceKm;
+    }
+
+    @Override
+    void setAutonomy(int slot, double autonomy) {
+        this.pages[slot >>> PAGE_BITS].autonomy[slot & PAGE_MASK] = autonomy;
+    }
+
+    @Override
+    void setAvailable(int slot, long second, int nano) {
+        Page page = this.pages[slot >>> PAGE_BITS];
+        page.availableSecond[slot & PAGE_MASK] = second;
+        page.availableNano[slot & PAGE_MASK] = nano;
+    }
+
+    @Override
+    void setType(int slot, byte type) {
+        this.pages[slot >>> PAGE_BITS].type[slot & PAGE_MASK] = type;
+    }
+
+    private static final class Page {
+        private final double[] x = new double[PAGE_SIZE];
+        private final double[] y = new double[PAGE_SIZE];
+        private final double[] priceKm = new double[PAGE_SIZE];
+        private final double[] autonomy = new double[PAGE_SIZE];
+        /* Segundos desde 1970 (ver FleetStore.epochSecond) e nanossegundos do instante em que fica disponível */
+        private final long[] availableSecond = new long[PAGE_SIZE];
+        private final int[] availableNano = new int[PAGE_SIZE];
+        private final byte[] type = new byte[PAGE_SIZE];
+    }
+}
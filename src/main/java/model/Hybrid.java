@@ -3,6 +3,7 @@ package model;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 public class Hybrid extends Transport implements Serializable {
 
@@ -48,6 +49,27 @@ public class Hybrid extends Transport implements Serializable {
         this.autonomiaEletrico = capacidade * 0.5;
     }
 
+    /**
+     * Construtor parametrizado com todo o estado de um híbrido, usado ao carregar o modelo
+     *
+     * @param consumoGas        Consumo do motor a combustíveis fósseis
+     * @param consumoEletrico   Consumo do motor elétrico
+     * @param autonomiaGas      Autonomia do motor a combustíveis fósseis
+     * @param autonomiaEletrico Autonomia do motor elétrico
+     * @see Transport#Transport(String, int, String, Point2D.Double, double, double, double, double, double, List, List, LocalDateTime)
+     */
+    public Hybrid(double consumoGas, double consumoEletrico, double autonomiaGas, double autonomiaEletrico,
+                  String id, int nifDono, String email, Point2D.Double position, double autonomy,
+                  double capacity, double avgVelocity, double rating, double priceKm,
+                  List<Aluguer> alugueres, RatingStore classificacoes, LocalDateTime availableAt) {
+        super(id, nifDono, email, position, autonomy, capacity, avgVelocity, rating, priceKm,
+                alugueres, classificacoes, availableAt);
+        this.consumoGas = consumoGas;
+        this.consumoEletrico = consumoEletrico;
+        this.autonomiaGas = autonomiaGas;
+        this.autonomiaEletrico = autonomiaEletrico;
+    }
+
     public Hybrid(Hybrid h) {
         super(h);
         this.consumoGas = h.getConsumoGas();
@@ -196,8 +218,9 @@ public class Hybrid extends Transport implements Serializable {
      *
      * @param origin      Onde vai ter de ir ter com o cliente
      * @param destination Posição para qual o carro se irá mover
+     * @param departure   Instante da partida
      */
-    public void moveTransport(Point2D.Double origin, Point2D.Double destination) {
+    public void moveTransport(Point2D.Double origin, Point2D.Double destination, LocalDateTime departure) {
         double distance = this.getPosition().distance(origin) + origin.distance(destination);
         double spentFuelPercentage = distance * this.getConsumoGas();
         double spentElectricityPercentage = distance * this.getConsumoEletrico();
@@ -206,6 +229,6 @@ public class Hybrid extends Transport implements Serializable {
         this.setAutonomiaEletrico(this.getAutonomiaEletrico() - spentElectricityPercentage);
         if (this.getAutonomiaEletrico() < this.getAutonomiaGas()) this.setAutonomy(this.getAutonomiaGas());
         else this.setAutonomy(this.getAutonomiaEletrico());
-        this.setAvailableAt(LocalDateTime.now().plusHours((long) timeSpentOnTravel));
+        this.setAvailableAt(departure.plusHours((long) timeSpentOnTravel));
     }
 }
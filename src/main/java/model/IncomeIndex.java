@@ -0,0 +1,140 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Índice das receitas de um conjunto de alugueres: os instantes dos alugueres, ordenados, e a soma
+ * acumulada dos seus preços. A receita de qualquer intervalo de datas é a diferença de duas somas
+ * acumuladas, encontradas por pesquisa binária, sem percorrer nem copiar os alugueres.
+ * <p>
+ * Os preços dos alugueres não devem mudar depois de entrarem no índice.
+ */
+class IncomeIndex {
+
+    /**
+     * Variáveis de instância
+     */
+    private long[] times;
+    /* sums[i] é a soma dos preços dos primeiros i alugueres */
+    private double[] sums;
+    private int size;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Construtor parametrizado
+     *
+     * @param rents Alugueres, por qualquer ordem
+     */
+    IncomeIndex(Collection<Aluguer> rents) {
+        List<Aluguer> sorted = new ArrayList<>(rents);
+        sorted.sort(Comparator.comparing(Aluguer::getDate));
+
+        this.times = new long[Math.max(INITIAL_CAPACITY, sorted.size())];
+        this.sums = new double[this.times.length + 1];
+        this.size = 0;
+        for (Aluguer aluguer : sorted) {
+            this.times[this.size] = IncomeIndex.key(aluguer.getDate());
+            this.sums[this.size + 1] = this.sums[this.size] + aluguer.getPrice();
+            this.size++;
+        }
+    }
+
+    /**
+     * Construtor por cópia
+     *
+     * @param index Índice a copiar
+     */
+    IncomeIndex(IncomeIndex index) {
+        this.times = Arrays.copyOf(index.times, index.times.length);
+        this.sums = Arrays.copyOf(index.sums, index.sums.length);
+        this.size = index.size;
+    }
+
+    /**
+     * Acrescenta um aluguer; em O(1) se for o mais recente, como é habitual
+     *
+     * @param aluguer Aluguer a acrescentar
+     */
+    void add(Aluguer aluguer) {
+        long time = IncomeIndex.key(aluguer.getDate());
+
+        if (this.size == this.times.length) {
+            this.times = Arrays.copyOf(this.times, this.size * 2);
+            this.sums = Arrays.copyOf(this.sums, this.size * 2 + 1);
+        }
+
+        /* As somas dos alugueres seguintes passam a incluir o novo */
+        int position = this.firstAfter(time);
+        System.arraycopy(this.times, position, this.times, position + 1, this.size - position);
+        this.times[position] = time;
+        for (int i = this.size; i > position; i--)
+            this.sums[i + 1] = this.sums[i] + aluguer.getPrice();
+        this.sums[position + 1] = this.sums[position] + aluguer.getPrice();
+        this.size++;
+    }
+
+    /**
+     * Permite obter a receita dos alugueres feitos estritamente entre duas datas
+     *
+     * @param begin Data de início (exclusiva)
+     * @param end   Data de fim (exclusiva)
+     * @return Soma dos preços desses alugueres
+     */
+    double between(LocalDateTime begin, LocalDateTime end) {
+        int from = this.firstAfter(IncomeIndex.key(begin));
+        int to = this.firstNotBefore(IncomeIndex.key(end));
+
+        return from >= to ? 0 : this.sums[to] - this.sums[from];
+    }
+
+    /**
+     * @return Soma dos preços de todos os alugueres
+     */
+    double total() {
+        return this.sums[this.size];
+    }
+
+    private int firstAfter(long time) {
+        int low = 0, high = this.size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.times[middle] > time) high = middle;
+            else low = middle + 1;
+        }
+
+        return low;
+    }
+
+    private int firstNotBefore(long time) {
+        int low = 0, high = this.size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.times[middle] < time) low = middle + 1;
+            else high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return Nanossegundos desde 1970 (em UTC), saturados para datas fora do alcance de um long
+     */
+    static long key(LocalDateTime date) {
+        long seconds = date.toEpochSecond(ZoneOffset.UTC);
+
+        try {
+            return Math.addExact(Math.multiplyExact(seconds, 1_000_000_000L), date.getNano());
+        } catch (ArithmeticException e) {
+            return seconds < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Classificação de usuários por uma pontuação (número de alugueres, quilómetros percorridos, ...),
+ * da maior para a menor e, em caso de empate, por email.
+ * Atualizar a pontuação de um usuário é O(log N) e obter os n primeiros é O(n).
+ * <p>
+ * As atualizações de um mesmo usuário devem ser feitas em exclusão mútua (com o lock do usuário);
+ * as de usuários diferentes e as leituras podem ser concorrentes.
+ */
+class Leaderboard {
+
+    /**
+     * Variáveis de instância
+     */
+    private final NavigableSet<Entry> entries;
+    private final ConcurrentMap<String, Entry> byEmail;
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingDouble((Entry e) -> e.score).reversed()
+            .thenComparing(e -> e.email);
+
+    /**
+     * Construtor por omissão
+     */
+    Leaderboard() {
+        this.entries = new ConcurrentSkipListSet<>(ORDER);
+        this.byEmail = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Define a pontuação de um usuário, substituindo a anterior
+     *
+     * @param email Email do usuário
+     * @param score Pontuação
+     */
+    void update(String email, double score) {
+        Entry entry = new Entry(email, score);
+        Entry old = this.byEmail.put(email, entry);
+
+        if (old != null) this.entries.remove(old);
+        this.entries.add(entry);
+    }
+
+    /**
+     * Permite obter os emails dos primeiros usuários da classificação
+     *
+     * @param n Número de usuários
+     * @return Emails, do primeiro para o último
+     */
+    List<String> top(int n) {
+        List<String> ret = new ArrayList<>(n);
+        Iterator<Entry> itr = this.entries.iterator();
+
+        for (int i = 0; itr.hasNext() && i < n; i++)
+            ret.add(itr.next().email);
+
+        return ret;
+    }
+
+    private static class Entry {
+        private final String email;
+        private final double score;
+
+        private Entry(String email, double score) {
+            this.email = email;
+            this.score = score;
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package model;
 
+import java.io.Serializable;
 import java.util.List;
 
-public abstract class Notification {
+public abstract class Notification implements Serializable {
 
     private int status;
 
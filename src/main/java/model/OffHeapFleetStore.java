@@ -0,0 +1,114 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Colunas em ByteBuffers diretos, fora do heap: o coletor de lixo não as percorre nem copia, por maior que
+ * seja a frota, e os transportes no heap só guardam os restantes campos. Cada página é um buffer com as
+ * colunas uma a seguir à outra, para que as pesquisas continuem a ler posições consecutivas de memória.
+ * <p>
+ * As páginas nunca são libertadas (as posições livres são reutilizadas) e a memória está limitada por
+ * -XX:MaxDirectMemorySize.
+ */
+final class OffHeapFleetStore extends FleetStore {
+
+    /* Início de cada coluna dentro de uma página */
+    private static final int X = 0;
+    private static final int Y = X + PAGE_SIZE * Double.BYTES;
+    private static final int PRICE_KM = Y + PAGE_SIZE * Double.BYTES;
+    private static final int AUTONOMY = PRICE_KM + PAGE_SIZE * Double.BYTES;
+    private static final int AVAILABLE_SECOND = AUTONOMY + PAGE_SIZE * Double.BYTES;
+    private static final int AVAILABLE_NANO = AVAILABLE_SECOND + PAGE_SIZE * Long.BYTES;
+    private static final int TYPE = AVAILABLE_NANO + PAGE_SIZE * Integer.BYTES;
+    private static final int PAGE_BYTES = TYPE + PAGE_SIZE;
+
+    /**
+     * Variáveis de instância
+     */
+    private volatile ByteBuffer[] pages;
+
+    /**
+     * Construtor por omissão
+     */
+    OffHeapFleetStore() {
+        this.pages = new ByteBuffer[16];
+    }
+
+    @Override
+    void addPage(int page) {
+        ByteBuffer[] pages = this.pages;
+        if (page == pages.length) pages = Arrays.copyOf(pages, 2 * page);
+        pages[page] = ByteBuffer.allocateDirect(PAGE_BYTES).order(ByteOrder.nativeOrder());
+        this.pages = pages;
+    }
+
+    @Override
+    double x(int slot) {
+        return this.page(slot).getDouble(X + (slot & PAGE_MASK) * Double.BYTES);
+    }
+
+    @Override
+    double y(int slot) {
+        return this.page(slot).getDouble(Y + (slot & PAGE_MASK) * Double.BYTES);
+    }
+
+    @Override
+    double priceKm(int slot) {
+        return this.page(slot).getDouble(PRICE_KM + (slot & PAGE_MASK) * Double.BYTES);
+    }
+
+    @Override
+    double autonomy(int slot) {
+        return this.page(slot).getDouble(AUTONOMY + (slot & PAGE_MASK) * Double.BYTES);
+    }
+
+    @Override
+    long availableSecond(int slot) {
+        return this.page(slot).getLong(AVAILABLE_SECOND + (slot & PAGE_MASK) * Long.BYTES);
+    }
+
+    @Override
+    int availableNano(int slot) {
+        return this.page(slot).getInt(AVAILABLE_NANO + (slot & PAGE_MASK) * Integer.BYTES);
+    }
+
+    @Override
+    byte type(int slot) {
+        return this.page(slot).get(TYPE + (slot & PAGE_MASK));
+    }
+
+    @Override
+    void setPosition(int slot, double x, double y) {
+        ByteBuffer page = this.page(slot);
+        page.putDouble(X + (slot & PAGE_MASK) * Double.BYTES, x);
+        page.putDouble(Y + (slot & PAGE_MASK) * Double.BYTES, y);
+    }
+
+    @Override
+    void setPriceKm(int slot, double priceKm) {
+        this.page(slot).putDouble(PRICE_KM + (slot & PAGE_MASK) * Double.BYTES, priceKm);
+    }
+
+    @Override
+    void setAutonomy(int slot, double autonomy) {
+        this.page(slot).putDouble(AUTONOMY + (slot & PAGE_MASK) * Double.BYTES, autonomy);
+    }
+
+    @Override
+    void setAvailable(int slot, long second, int nano) {
+        ByteBuffer page = this.page(slot);
+        page.putLong(AVAILABLE_SECOND + (slot & PAGE_MASK) * Long.BYTES, second);
+        page.putInt(AVAILABLE_NANO + (slot & PAGE_MASK) * Integer.BYTES, nano);
+    }
+
+    @Override
+    void setType(int slot, byte type) {
+        this.page(slot).put(TYPE + (slot & PAGE_MASK), type);
+    }
+
+    private ByteBuffer page(int slot) {
+        return this.pages[slot >>> PAGE_BITS];
+    }
+}
@@ -2,9 +2,18 @@ package model;
 
 import java.awt.geom.Point2D;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
 
 public class Owner extends User implements Serializable {
 
+    /**
+     * Receitas dos alugueres do proprietário, que são os de todos os seus transportes,
+     * indexadas na primeira consulta (ver IncomeIndex)
+     */
+    private transient IncomeIndex income;
+
     /**
      * Construtor por cópia
      *
@@ -12,6 +21,7 @@ public class Owner extends User implements Serializable {
      */
     public Owner(Owner owner) {
         super(owner);
+        this.income = owner.income == null ? null : new IncomeIndex(owner.income);
     }
 
     /**
@@ -46,6 +56,16 @@ public class Owner extends User implements Serializable {
         super(name, nif, email, address, password);
     }
 
+    /**
+     * Construtor parametrizado com todo o estado de um proprietário, usado ao carregar o modelo
+     *
+     * @see User#User(String, int, String, String, String, LocalDate, double, List, List, List)
+     */
+    public Owner(String name, int nif, String email, String address, String hashedPassword, LocalDate birthday,
+                 double rating, List<Aluguer> rents, List<Notification> pendingTasks, RatingStore classificacoes) {
+        super(name, nif, email, address, hashedPassword, birthday, rating, rents, pendingTasks, classificacoes);
+    }
+
     /**
      * Permite obter uma cópia dos objetos do tipo 'Owner'
      *
@@ -64,16 +84,6 @@ public class Owner extends User implements Serializable {
         t.setAutonomy(100);
     }
 
-    /**
-     * Permite alterar o preço por quilómetro de um transporte
-     *
-     * @param t        Transporte cujo preço será alterado
-     * @param newPrice Novo preço
-     */
-    public void changeTrasportPriceKm(Transport t, int newPrice) {
-        t.setPriceKm(newPrice);
-    }
-
     /**
      * Permite calcular o preço de uma viagem
      *
@@ -85,6 +95,31 @@ public class Owner extends User implements Serializable {
         return t.getPriceKm() * t.getPosition().distance(destination);
     }
 
+    @Override
+    public void setRents(List<Aluguer> l) {
+        super.setRents(l);
+        this.income = null;
+    }
+
+    @Override
+    public void addAluguer(Aluguer a) {
+        super.addAluguer(a);
+        if (this.income != null) this.income.add(a);
+    }
+
+    /**
+     * Permite obter a receita de todos os transportes do proprietário com alugueres feitos estritamente
+     * entre duas datas, em tempo logarítmico no número de alugueres
+     *
+     * @param begin Data de início (exclusiva)
+     * @param end   Data de fim (exclusiva)
+     * @return Receita do proprietário nesse intervalo
+     */
+    public double getIncomeBetween(LocalDateTime begin, LocalDateTime end) {
+        if (this.income == null) this.income = new IncomeIndex(this.viewRents());
+        return this.income.between(begin, end);
+    }
+
     public void decideRentRequest(String client, String id, int decision) {
         for (Notification n : this.getPendingTasks()) {
             if (n instanceof RentNotification) {
@@ -0,0 +1,230 @@
+package model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Classificações de um usuário ou transporte, guardadas num array de doubles que cresce
+ * conforme é preciso, sem um objeto Double por classificação. A soma é mantida a cada classificação
+ * acrescentada, pelo que a média é O(1), e copiar o conjunto é uma cópia do array.
+ * <p>
+ * Os percentis são estimados por um histograma das classificações (de 0 a 100, em intervalos de 1),
+ * construído no primeiro pedido e depois mantido, pelo que só gasta memória quando é usado.
+ * Como as listas que substitui, deve ser usado com o lock do dono.
+ */
+public class RatingStore implements Serializable {
+
+    /**
+     * Variáveis de instância
+     */
+    private transient double[] values;
+    private transient int size;
+    private transient double sum;
+    private transient int[] histogram;
+
+    private static final double[] EMPTY = new double[0];
+    private static final int MIN_CAPACITY = 4;
+    private static final int MAX_RATING = 100;
+
+    /**
+     * Construtor por omissão
+     */
+    public RatingStore() {
+        this.values = EMPTY;
+        this.size = 0;
+        this.sum = 0;
+    }
+
+    /**
+     * Construtor parametrizado. O array passa a pertencer ao conjunto, sem ser copiado.
+     *
+     * @param values Classificações
+     */
+    public RatingStore(double[] values) {
+        this.values = values;
+        this.size = values.length;
+        this.sum = this.recomputeSum();
+    }
+
+    /**
+     * Construtor parametrizado
+     *
+     * @param values Classificações
+     */
+    public RatingStore(Collection<Double> values) {
+        this();
+        this.addAll(values);
+    }
+
+    /**
+     * Construtor por cópia
+     *
+     * @param store Classificações a copiar
+     */
+    public RatingStore(RatingStore store) {
+        this.values = Arrays.copyOf(store.values, store.size);
+        this.size = store.size;
+        this.sum = store.sum;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @param index Posição da classificação, pela ordem em que foram acrescentadas
+     * @return Classificação
+     */
+    public double get(int index) {
+        if (index < 0 || index >= this.size) throw new IndexOutOfBoundsException("Index " + index + ", size " + this.size);
+        return this.values[index];
+    }
+
+    public void add(double rating) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.max(MIN_CAPACITY, this.size + (this.size >> 1)));
+        }
+        this.values[this.size++] = rating;
+        this.sum += rating;
+        if (this.histogram != null) this.histogram[RatingStore.bin(rating)]++;
+    }
+
+    public void addAll(Collection<Double> ratings) {
+        for (double rating : ratings)
+            this.add(rating);
+    }
+
+    /**
+     * @return Soma das classificações, mantida à medida que são acrescentadas
+     */
+    public double sum() {
+        return this.sum;
+    }
+
+    /**
+     * Permite obter a soma das classificações percorrendo-as todas (ver Aggregates)
+     *
+     * @return Soma das classificações
+     */
+    public double recomputeSum() {
+        double sum = 0;
+        for (int i = 0; i < this.size; i++)
+            sum += this.values[i];
+        return sum;
+    }
+
+    /**
+     * @return Média das classificações (NaN se não houver nenhuma)
+     */
+    public double mean() {
+        return this.sum / this.size;
+    }
+
+    /**
+     * Permite estimar um percentil das classificações, com um erro de até 1 ponto
+     *
+     * @param p Fração das classificações abaixo do valor, entre 0 e 1 (0.5 para a mediana)
+     * @return Percentil, ou NaN se não houver classificações
+     */
+    public double percentile(double p) {
+        if (this.size == 0) return Double.NaN;
+        if (this.histogram == null) {
+            int[] histogram = new int[MAX_RATING + 1];
+            for (int i = 0; i < this.size; i++)
+                histogram[RatingStore.bin(this.values[i])]++;
+            this.histogram = histogram;
+        }
+
+        double target = Math.min(1, Math.max(0, p)) * this.size;
+        int seen = 0;
+        for (int bin = 0; bin < this.histogram.length; bin++) {
+            int count = this.histogram[bin];
+            if (count > 0 && seen + count >= target) {
+                return Math.min(MAX_RATING, bin + (target - seen) / count);
+            }
+            seen += count;
+        }
+        return MAX_RATING;
+    }
+
+    /**
+     * @return Cópia das classificações
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    /**
+     * Permite percorrer as classificações como uma lista, sem as copiar
+     *
+     * @return Vista só de leitura das classificações
+     */
+    public List<Double> asList() {
+        return new ListView();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || this.getClass() != o.getClass()) return false;
+        RatingStore that = (RatingStore) o;
+        return this.size == that.size
+                && Arrays.equals(this.values, 0, this.size, that.values, 0, that.size);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.asList().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.asList().toString();
+    }
+
+    private static int bin(double rating) {
+        return (int) Math.min(MAX_RATING, Math.max(0, Math.floor(rating)));
+    }
+
+    /**
+     * Guardado como o número de classificações seguido delas, sem a capacidade livre do array
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(this.size);
+        for (int i = 0; i < this.size; i++)
+            out.writeDouble(this.values[i]);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.size = in.readInt();
+        this.values = new double[this.size];
+        for (int i = 0; i < this.size; i++)
+            this.values[i] = in.readDouble();
+        this.sum = this.recomputeSum();
+    }
+
+    private class ListView extends AbstractList<Double> implements RandomAccess {
+        @Override
+        public Double get(int index) {
+            return RatingStore.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return RatingStore.this.size;
+        }
+    }
+}
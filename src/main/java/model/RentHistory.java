@@ -0,0 +1,169 @@
+package model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Histórico de alugueres de um usuário, ordenado pela data de cada aluguer.
+ * Como os alugueres chegam quase sempre por ordem, acrescentar um é O(1); as consultas por intervalo
+ * de datas são uma pesquisa binária mais uma fatia contígua da lista.
+ * <p>
+ * A lista com que é construído não é copiada, para que os alugueres de um snapshot continuem a ser
+ * lidos só quando são usados (ver util.LazyList). Só é verificado que está ordenada (e ordenada,
+ * se for preciso) no primeiro acesso aos alugueres.
+ */
+public class RentHistory extends AbstractList<Aluguer> implements RandomAccess, Serializable {
+
+    /**
+     * Variáveis de instância
+     */
+    private volatile List<Aluguer> rents;
+    private volatile boolean sorted;
+
+    /**
+     * Construtor por omissão
+     */
+    public RentHistory() {
+        this.rents = new ArrayList<>();
+        this.sorted = true;
+    }
+
+    /**
+     * Construtor parametrizado. A lista passa a pertencer ao histórico, sem ser copiada.
+     *
+     * @param rents Alugueres, por qualquer ordem
+     */
+    public RentHistory(List<Aluguer> rents) {
+        this.rents = rents;
+        this.sorted = rents.size() < 2;
+    }
+
+    /**
+     * Construtor de cópia, que copia também os alugueres
+     *
+     * @param history Histórico a copiar
+     */
+    public RentHistory(RentHistory history) {
+        List<Aluguer> rents = new ArrayList<>(history.size());
+
+        for (Aluguer aluguer : history.list())
+            rents.add(aluguer.clone());
+
+        this.rents = rents;
+        this.sorted = true;
+    }
+
+    @Override
+    public int size() {
+        return this.rents.size();
+    }
+
+    @Override
+    public Aluguer get(int index) {
+        return this.list().get(index);
+    }
+
+    /**
+     * Acrescenta um aluguer na posição dada pela sua data, depois dos alugueres com a mesma data
+     *
+     * @param aluguer Aluguer a acrescentar
+     * @return true
+     */
+    @Override
+    public boolean add(Aluguer aluguer) {
+        List<Aluguer> rents = this.list();
+        int size = rents.size();
+
+        if (size == 0 || !rents.get(size - 1).getDate().isAfter(aluguer.getDate())) {
+            rents.add(aluguer);
+        } else {
+            rents.add(this.firstAfter(aluguer.getDate()), aluguer);
+        }
+        this.modCount++;
+
+        return true;
+    }
+
+    @Override
+    public Aluguer remove(int index) {
+        this.modCount++;
+        return this.list().remove(index);
+    }
+
+    /**
+     * Permite obter os alugueres feitos estritamente entre duas datas, sem os percorrer todos
+     *
+     * @param begin Data de início (exclusiva)
+     * @param end   Data de fim (exclusiva)
+     * @return Vista só de leitura dos alugueres, por ordem de data
+     */
+    public List<Aluguer> between(LocalDateTime begin, LocalDateTime end) {
+        int from = this.firstAfter(begin);
+        int to = this.firstNotBefore(end);
+
+        if (from >= to) return Collections.emptyList();
+        return Collections.unmodifiableList(this.list().subList(from, to));
+    }
+
+    /**
+     * @return Posição do primeiro aluguer com data posterior a uma data
+     */
+    private int firstAfter(LocalDateTime date) {
+        List<Aluguer> rents = this.list();
+        int low = 0, high = rents.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (rents.get(middle).getDate().isAfter(date)) high = middle;
+            else low = middle + 1;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return Posição do primeiro aluguer com data igual ou posterior a uma data
+     */
+    private int firstNotBefore(LocalDateTime date) {
+        List<Aluguer> rents = this.list();
+        int low = 0, high = rents.size();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (rents.get(middle).getDate().isBefore(date)) low = middle + 1;
+            else high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return Alugueres, garantidamente ordenados por data
+     */
+    private List<Aluguer> list() {
+        if (!this.sorted) {
+            synchronized (this) {
+                if (!this.sorted) {
+                    List<Aluguer> rents = this.rents;
+                    for (int i = 1; i < rents.size(); i++) {
+                        if (rents.get(i - 1).getDate().isAfter(rents.get(i).getDate())) {
+                            rents = new ArrayList<>(rents);
+                            rents.sort(Comparator.comparing(Aluguer::getDate));
+                            break;
+                        }
+                    }
+                    this.rents = rents;
+                    this.sorted = true;
+                }
+            }
+        }
+
+        return this.rents;
+    }
+}
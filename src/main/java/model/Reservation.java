@@ -0,0 +1,76 @@
+package model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Reserva de um transporte por um cliente. É imutável, para que possa ser trocada
+ * atomicamente (compare-and-set) no mapa de reservas do modelo.
+ */
+public class Reservation implements Serializable {
+
+    /**
+     * Variáveis de instância
+     */
+    private final String client;
+    /* Instante a partir do qual a reserva deixa de valer, ou null enquanto está a ser confirmada */
+    private final LocalDateTime expiresAt;
+
+    /**
+     * Construtor parametrizado
+     *
+     * @param client    Email do cliente que fez a reserva
+     * @param expiresAt Instante em que a reserva expira
+     */
+    public Reservation(String client, LocalDateTime expiresAt) {
+        this.client = client;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Permite obter o email do cliente que fez a reserva
+     *
+     * @return Email do cliente
+     */
+    public String getClient() {
+        return this.client;
+    }
+
+    /**
+     * Permite obter o instante em que a reserva expira
+     *
+     * @return Instante em que a reserva expira, ou null se estiver a ser confirmada
+     */
+    public LocalDateTime getExpiresAt() {
+        return this.expiresAt;
+    }
+
+    /**
+     * Permite verificar se a reserva pertence a um cliente
+     *
+     * @param client Email do cliente
+     * @return 'true' se a reserva for do cliente ou 'false' caso contrário
+     */
+    public boolean belongsTo(String client) {
+        return this.client.equals(client);
+    }
+
+    /**
+     * Permite verificar se a reserva ainda está em vigor num dado instante
+     *
+     * @param now Instante de referência
+     * @return 'true' se a reserva ainda não expirou ou 'false' caso contrário
+     */
+    public boolean isActive(LocalDateTime now) {
+        return this.expiresAt == null || this.expiresAt.isAfter(now);
+    }
+
+    /**
+     * Permite verificar se a reserva está a ser confirmada
+     *
+     * @return 'true' se a reserva estiver a ser confirmada ou 'false' caso contrário
+     */
+    public boolean isCommitting() {
+        return this.expiresAt == null;
+    }
+}
@@ -1,11 +1,22 @@
 package model;
 
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.ref.Reference;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * A posição, a autonomia, o preço por quilómetro e o instante em que fica disponível de um transporte estão
+ * nas colunas partilhadas (ver FleetStore), na posição 'slot' que a instância ocupa. Os métodos que usam essa
+ * posição mantêm a instância alcançável até a terem usado (Reference.reachabilityFence), já que a posição é
+ * libertada, e pode ser reutilizada por outro transporte, assim que a instância deixa de o ser.
+ */
 public abstract class Transport implements Comparable<Transport>, Serializable {
 
     /**
@@ -14,18 +25,24 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
     private String matricula;
     private int nifDono;
     private String email;
-    private Point2D.Double position;
-    private double autonomy;
     private double capacity;
     private double avgVelocity;
     private double rating;
-    private double priceKm;
     private List<Aluguer> alugueres;
-    private List<Double> classificacoes;
-    private LocalDateTime availableAt;
+    private RatingStore classificacoes;
+    /* Posição nas colunas com a posição, a autonomia, o preço e a disponibilidade do transporte */
+    private transient int slot;
+    /* Época do modelo a que a instância pertence (ver UMCarroJa.snapshot) */
+    transient int epoch;
+    /* Receitas dos alugueres, indexadas na primeira consulta (ver IncomeIndex) */
+    private transient IncomeIndex income;
+    /* Quilómetros percorridos, calculados no primeiro uso e depois mantidos (ver Aggregates) */
+    private transient double kms;
+    private transient boolean kmsKnown;
 
     private static double defaultRating = 50;
     private static double defaultPriceKm = 1.5;
+    private static final FleetStore COLUMNS = FleetStore.shared();
 
     /**
      * Construtor parametrizado
@@ -41,34 +58,45 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      */
     public Transport(String id, int nifDono, String email, double avgVelocity, double priceKm, double capacity,
                      double posX, double posY) {
-        this.matricula = id;
-        this.nifDono = nifDono;
-        this.email = email;
-        this.position = new Point2D.Double(posX, posY);
-        this.capacity = capacity;
-        this.autonomy = capacity;
-        this.avgVelocity = avgVelocity;
-        this.rating = defaultRating;
-        this.priceKm = priceKm;
-        this.alugueres = new ArrayList<>();
-        this.classificacoes = new ArrayList<>();
-        this.availableAt = null;
+        this(id, nifDono, email, new Point2D.Double(posX, posY), capacity, capacity, avgVelocity, defaultRating,
+                priceKm, new ArrayList<>(), new RatingStore(), null);
     }
 
     public Transport(String id, int nifDono, String email, double avgVelocity, double priceKm, double capacity,
                      Point2D.Double position) {
+        this(id, nifDono, email, position, capacity, capacity, avgVelocity, defaultRating, priceKm,
+                new ArrayList<>(), new RatingStore(), null);
+    }
+
+    /**
+     * Construtor parametrizado com todo o estado de um transporte, usado ao carregar o modelo.
+     * As listas passam a pertencer ao transporte, sem serem copiadas.
+     *
+     * @param id             Identificador do transporte
+     * @param nifDono        NIF do proprietário do carro
+     * @param email          Email
+     * @param position       Posição do transporte
+     * @param autonomy       Autonomia atual
+     * @param capacity       Capacidade
+     * @param avgVelocity    Velocidade média do carro
+     * @param rating         Rating do transporte
+     * @param priceKm        Preço por quilómetro do carro
+     * @param alugueres      Alugueres do transporte
+     * @param classificacoes Classificações do transporte
+     * @param availableAt    Instante em que o transporte fica disponível
+     */
+    protected Transport(String id, int nifDono, String email, Point2D.Double position, double autonomy,
+                        double capacity, double avgVelocity, double rating, double priceKm,
+                        List<Aluguer> alugueres, RatingStore classificacoes, LocalDateTime availableAt) {
         this.matricula = id;
         this.nifDono = nifDono;
         this.email = email;
-        this.position = (Point2D.Double) position.clone();
         this.capacity = capacity;
-        this.autonomy = capacity;
         this.avgVelocity = avgVelocity;
-        this.rating = defaultRating;
-        this.priceKm = priceKm;
-        this.alugueres = new ArrayList<>();
-        this.classificacoes = new ArrayList<>();
-        this.availableAt = null;
+        this.rating = rating;
+        this.alugueres = alugueres;
+        this.classificacoes = classificacoes;
+        this.attach(position.getX(), position.getY(), autonomy, priceKm, availableAt);
     }
 
     /**
@@ -80,15 +108,34 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
         this.matricula = transport.getId();
         this.nifDono = transport.getNifDono();
         this.email = transport.getEmail();
-        this.position = transport.getPosition();
         this.capacity = transport.getCapacity();
-        this.autonomy = transport.getAutonomy();
         this.avgVelocity = transport.getAvgVelocity();
         this.rating = transport.getRating();
-        this.priceKm = transport.getPriceKm();
         this.alugueres = transport.getAlugueres();
-        this.classificacoes = transport.getClassificacoes();
-        this.availableAt = transport.getAvailableAt();
+        this.classificacoes = new RatingStore(transport.classificacoes);
+        this.attach(transport.getPosX(), transport.getPosY(), transport.getAutonomy(), transport.getPriceKm(),
+                transport.getAvailableAt());
+        this.income = transport.income == null ? null : new IncomeIndex(transport.income);
+        this.kms = transport.kms;
+        this.kmsKnown = transport.kmsKnown;
+    }
+
+    /**
+     * Reserva a posição da instância nas colunas e guarda nela o estado inicial
+     */
+    private void attach(double x, double y, double autonomy, double priceKm, LocalDateTime availableAt) {
+        this.slot = COLUMNS.allocate(this, FleetStore.typeOf(this));
+        COLUMNS.setPosition(this.slot, x, y);
+        COLUMNS.setAutonomy(this.slot, autonomy);
+        COLUMNS.setPriceKm(this.slot, priceKm);
+        COLUMNS.setAvailableAt(this.slot, availableAt);
+    }
+
+    /**
+     * @return Posição da instância nas colunas (ver FleetStore)
+     */
+    int slot() {
+        return this.slot;
     }
 
     /**
@@ -119,7 +166,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @return Localização do carro
      */
     public Point2D.Double getPosition() {
-        return (Point2D.Double) this.position.clone();
+        try {
+            return new Point2D.Double(COLUMNS.x(this.slot), COLUMNS.y(this.slot));
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     public double getCapacity() {
@@ -132,7 +183,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @return Componente x da posição de um transporte
      */
     public double getPosX() {
-        return this.position.getX();
+        try {
+            return COLUMNS.x(this.slot);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -141,7 +196,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @return Componente y da posição de um transporte
      */
     public double getPosY() {
-        return this.position.getY();
+        try {
+            return COLUMNS.y(this.slot);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -150,7 +209,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @return Autonomia do transporte
      */
     public double getAutonomy() {
-        return this.autonomy;
+        try {
+            return COLUMNS.autonomy(this.slot);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -177,7 +240,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @return Preço do transporte
      */
     public double getPriceKm() {
-        return this.priceKm;
+        try {
+            return COLUMNS.priceKm(this.slot);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -195,12 +262,31 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
     }
 
     public List<Double> getClassificacoes() {
-        List<Double> ret = new ArrayList<>();
+        return new ArrayList<>(this.classificacoes.asList());
+    }
+
+    /**
+     * Permite percorrer os alugueres de um transporte sem os copiar.
+     * Os alugueres devolvidos pertencem ao transporte e não devem ser alterados.
+     *
+     * @return Vista só de leitura dos alugueres
+     */
+    public List<Aluguer> viewAlugueres() {
+        return Collections.unmodifiableList(this.alugueres);
+    }
 
-        for (double classificacao : this.classificacoes)
-            ret.add(classificacao);
+    public List<Double> viewClassificacoes() {
+        return this.classificacoes.asList();
+    }
 
-        return ret;
+    /**
+     * Permite consultar as classificações sem as copiar nem converter em Double (média, percentis, ...).
+     * As classificações devolvidas pertencem ao transporte e não devem ser alteradas.
+     *
+     * @return Classificações do transporte
+     */
+    public RatingStore viewRatings() {
+        return this.classificacoes;
     }
 
     /**
@@ -209,7 +295,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @return Data de quando um transporte estará disponível
      */
     public LocalDateTime getAvailableAt() {
-        return this.availableAt;
+        try {
+            return COLUMNS.availableAt(this.slot);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -240,7 +330,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @param destination Posição do transporte
      */
     public void setPosition(Point2D.Double destination) {
-        this.position = (Point2D.Double) destination.clone();
+        try {
+            COLUMNS.setPosition(this.slot, destination.getX(), destination.getY());
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     public void setCapacity(int capacity) {
@@ -253,7 +347,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @param autonomy Autonomia a definir
      */
     public void setAutonomy(double autonomy) {
-        this.autonomy = autonomy;
+        try {
+            COLUMNS.setAutonomy(this.slot, autonomy);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -280,7 +378,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @param price Preço a definir
      */
     public void setPriceKm(double price) {
-        this.priceKm = price;
+        try {
+            COLUMNS.setPriceKm(this.slot, price);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     /**
@@ -290,16 +392,15 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      */
     public void setAlugueres(List<Aluguer> alugueres) {
         this.alugueres = new ArrayList<>();
+        this.income = null;
+        this.kmsKnown = false;
 
         for (Aluguer aluguer : alugueres)
             this.alugueres.add(aluguer.clone());
     }
 
     public void setClassificacoes(List<Double> classificacoes) {
-        this.classificacoes = new ArrayList<>();
-
-        for (double classificacao : classificacoes)
-            this.classificacoes.add(classificacao);
+        this.classificacoes = new RatingStore(classificacoes);
     }
 
     /**
@@ -308,7 +409,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      * @param time Instante temporal a definir
      */
     public void setAvailableAt(LocalDateTime time) {
-        this.availableAt = time;
+        try {
+            COLUMNS.setAvailableAt(this.slot, time);
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     @Override
@@ -318,13 +423,15 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
 
         Transport transport = (Transport) o;
 
-        return (nifDono != transport.nifDono) && (Double.compare(transport.autonomy, autonomy) != 0)
+        LocalDateTime availableAt = this.getAvailableAt();
+
+        return (nifDono != transport.nifDono) && (Double.compare(transport.getAutonomy(), this.getAutonomy()) != 0)
                 && (Double.compare(transport.capacity, capacity) != 0) && (Double.compare(transport.avgVelocity, avgVelocity) != 0)
-                && (Double.compare(transport.rating, rating) != 0) && (Double.compare(transport.priceKm, priceKm) != 0)
+                && (Double.compare(transport.rating, rating) != 0) && (Double.compare(transport.getPriceKm(), this.getPriceKm()) != 0)
                 && (!matricula.equals(transport.matricula)) && (!email.equals(transport.email))
-                && (!position.equals(transport.position)) && (!alugueres.equals(transport.alugueres))
+                && (!this.getPosition().equals(transport.getPosition())) && (!alugueres.equals(transport.alugueres))
                 && (!classificacoes.equals(transport.classificacoes))
-                && availableAt != null ? availableAt.equals(transport.availableAt) : transport.availableAt == null;
+                && availableAt != null ? availableAt.equals(transport.getAvailableAt()) : transport.getAvailableAt() == null;
     }
 
     @Override
@@ -334,8 +441,8 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
         result = matricula.hashCode();
         result = 31 * result + nifDono;
         result = 31 * result + email.hashCode();
-        result = 31 * result + position.hashCode();
-        temp = Double.doubleToLongBits(autonomy);
+        result = 31 * result + this.getPosition().hashCode();
+        temp = Double.doubleToLongBits(this.getAutonomy());
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(capacity);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
@@ -343,11 +450,11 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(rating);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
-        temp = Double.doubleToLongBits(priceKm);
+        temp = Double.doubleToLongBits(this.getPriceKm());
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         result = 31 * result + alugueres.hashCode();
         result = 31 * result + classificacoes.hashCode();
-        result = 31 * result + (availableAt != null ? availableAt.hashCode() : 0);
+        result = 31 * result + (this.getAvailableAt() != null ? this.getAvailableAt().hashCode() : 0);
         return result;
     }
 
@@ -373,13 +480,13 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
         return "Transport{" +
                 "id='" + this.matricula + '\'' +
                 ", nifDono=" + this.nifDono +
-                ", position=" + this.position +
-                ", autonomy=" + this.autonomy +
+                ", position=" + this.getPosition() +
+                ", autonomy=" + this.getAutonomy() +
                 ", avgVelocity=" + this.avgVelocity +
                 ", rating=" + this.rating +
-                ", priceKm=" + this.priceKm +
+                ", priceKm=" + this.getPriceKm() +
                 ", alugueres=" + this.alugueres +
-                ", availableAt=" + this.availableAt +
+                ", availableAt=" + this.getAvailableAt() +
                 '}';
     }
 
@@ -395,18 +502,32 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
      */
     public abstract Transport clone();
 
+    /**
+     * Permite alterar a posição do transporte, partindo no instante atual
+     *
+     * @param origin      Local onde está o cliente
+     * @param destination destino
+     */
+    public void moveTransport(Point2D.Double origin, Point2D.Double destination) {
+        this.moveTransport(origin, destination, LocalDateTime.now());
+    }
+
     /**
      * Permite alterar a posição do transporte
      *
      * @param origin      Local onde está o cliente
      * @param destination destino
+     * @param departure   Instante da partida, a partir do qual se calcula quando volta a estar disponível
      */
-    public abstract void moveTransport(Point2D.Double origin, Point2D.Double destination);
+    public abstract void moveTransport(Point2D.Double origin, Point2D.Double destination, LocalDateTime departure);
 
+    /**
+     * Permite calcular o rating do transporte, a média das suas classificações, em O(1)
+     *
+     * @return Média das classificações
+     */
     public double calculateRating() {
-        double sum = 0;
-        for (double i : this.classificacoes)
-            sum += i;
+        double sum = Aggregates.check("Rating sum", this.matricula, this.classificacoes.sum(), this.classificacoes::recomputeSum);
         return (sum / this.classificacoes.size());
     }
 
@@ -415,26 +536,81 @@ public abstract class Transport implements Comparable<Transport>, Serializable {
         this.rating = this.calculateRating();
     }
 
+    /**
+     * Permite obter os quilómetros percorridos nos alugueres do transporte. São calculados
+     * no primeiro pedido e acumulados a cada aluguer acrescentado, pelo que os pedidos seguintes são O(1).
+     *
+     * @return Quilómetros percorridos
+     */
+    public double travelledKms() {
+        if (!this.kmsKnown) {
+            this.kms = Aggregates.kms(this.alugueres);
+            this.kmsKnown = true;
+        }
+        return Aggregates.check("Travelled kms", this.matricula, this.kms, () -> Aggregates.kms(this.alugueres));
+    }
+
     public boolean isAvailable() {
-        boolean r = false;
-        if (this.availableAt == null) r = true;
-        else if (this.availableAt.isBefore(LocalDateTime.now()) == true) r = true;
-        return r;
+        return this.isAvailableAt(LocalDateTime.now());
+    }
+
+    /**
+     * Permite saber se o transporte está disponível antes de um instante, sem construir o instante
+     * em que fica disponível
+     *
+     * @param now Instante
+     * @return 'true' se o transporte não tiver instante de disponibilidade ou se este for anterior a 'now'
+     */
+    public boolean isAvailableAt(LocalDateTime now) {
+        try {
+            return COLUMNS.isAvailableBefore(this.slot, FleetStore.epochSecond(now), now.getNano());
+        } finally {
+            Reference.reachabilityFence(this);
+        }
     }
 
     public void refill() {
-        this.autonomy = this.capacity;
+        this.setAutonomy(this.capacity);
     }
 
     public boolean hasAutonomy(double autonomy) {
-        return this.autonomy >= autonomy;
+        return this.getAutonomy() >= autonomy;
     }
 
     public boolean hasAutonomy(Point2D.Double destiny) {
-        return this.position.distance(destiny) <= this.autonomy;
+        return this.getPosition().distance(destiny) <= this.getAutonomy();
     }
 
     public void addAluguer(Aluguer a) {
         this.alugueres.add(a);
+        if (this.income != null) this.income.add(a);
+        if (this.kmsKnown) this.kms += a.getOrigin().distance(a.getDestination());
+    }
+
+    /**
+     * Permite obter a receita dos alugueres do transporte feitos estritamente entre duas datas,
+     * em tempo logarítmico no número de alugueres
+     *
+     * @param begin Data de início (exclusiva)
+     * @param end   Data de fim (exclusiva)
+     * @return Receita do transporte nesse intervalo
+     */
+    public double getIncomeBetween(LocalDateTime begin, LocalDateTime end) {
+        if (this.income == null) this.income = new IncomeIndex(this.alugueres);
+        return this.income.between(begin, end);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeDouble(this.getPosX());
+        out.writeDouble(this.getPosY());
+        out.writeDouble(this.getAutonomy());
+        out.writeDouble(this.getPriceKm());
+        out.writeObject(this.getAvailableAt());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.attach(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), (LocalDateTime) in.readObject());
     }
 }
@@ -0,0 +1,281 @@
+package model;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+public class TransportGrid {
+
+    /**
+     * Variáveis de instância
+     */
+    private double cellSize;
+    private Map<Long, Map<String, Transport>> cells;
+    private Map<String, Long> cellOf;
+    private volatile int minCellX;
+    private volatile int maxCellX;
+    private volatile int minCellY;
+    private volatile int maxCellY;
+    /* Uma célula da fronteira ficou vazia: os limites podem ter encolhido */
+    private volatile boolean boundsStale;
+
+    private static final double DEFAULT_CELL_SIZE = 5;
+
+    /**
+     * Construtor por omissão
+     */
+    public TransportGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Construtor parametrizado
+     *
+     * @param cellSize Largura (e altura) de cada célula da grelha
+     */
+    public TransportGrid(double cellSize) {
+        this.cellSize = cellSize;
+        this.cells = new ConcurrentHashMap<>();
+        this.cellOf = new ConcurrentHashMap<>();
+        this.minCellX = Integer.MAX_VALUE;
+        this.maxCellX = Integer.MIN_VALUE;
+        this.minCellY = Integer.MAX_VALUE;
+        this.maxCellY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Permite obter o número de transportes indexados
+     *
+     * @return Número de transportes indexados
+     */
+    public int size() {
+        return this.cellOf.size();
+    }
+
+    /**
+     * Permite indexar um transporte (ou reposicioná-lo, caso já esteja indexado).
+     * Atualizações concorrentes do mesmo transporte têm de ser serializadas por quem chama.
+     *
+     * @param transport Transporte a indexar
+     */
+    public void update(Transport transport) {
+        this.remove(transport.getId());
+
+        int cx = this.cellCoord(transport.getPosX());
+        int cy = this.cellCoord(transport.getPosY());
+        long key = TransportGrid.cellKey(cx, cy);
+
+        this.cells.compute(key, (k, cell) -> {
+            Map<String, Transport> ret = cell == null ? new ConcurrentHashMap<>() : cell;
+            ret.put(transport.getId(), transport);
+            return ret;
+        });
+        this.cellOf.put(transport.getId(), key);
+
+        if (cx < this.minCellX || cx > this.maxCellX || cy < this.minCellY || cy > this.maxCellY) {
+            this.extendBounds(cx, cy);
+        }
+    }
+
+    /**
+     * Permite remover um transporte da grelha
+     *
+     * @param id Identificador do transporte
+     */
+    public void remove(String id) {
+        Long key = this.cellOf.remove(id);
+
+        if (key != null) {
+            this.cells.computeIfPresent(key, (k, cell) -> {
+                cell.remove(id);
+                if (!cell.isEmpty()) return cell;
+                if (this.onBounds(k)) this.boundsStale = true;
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Permite obter o transporte mais próximo de uma posição que satisfaça um filtro
+     *
+     * @param position Posição de referência
+     * @param filter   Condição que o transporte tem de satisfazer
+     * @return Transporte mais próximo (ou 'null' caso nenhum satisfaça o filtro)
+     */
+    public Transport closest(Point2D.Double position, Predicate<Transport> filter) {
+        List<Transport> ret = this.nearest(position, 1, filter);
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    /**
+     * Permite obter os 'k' transportes mais próximos de uma posição que satisfaçam um filtro.
+     * A pesquisa percorre anéis de células à volta da posição, recortados pelo retângulo das células
+     * ocupadas (começando no primeiro anel que o interseta), e termina assim que nenhum anel por visitar
+     * possa conter um transporte mais próximo do que os já encontrados.
+     *
+     * @param position Posição de referência
+     * @param k        Número máximo de transportes a devolver
+     * @param filter   Condição que os transportes têm de satisfazer
+     * @return Lista dos transportes ordenada por distância (e matrícula, em caso de empate)
+     */
+    public List<Transport> nearest(Point2D.Double position, int k, Predicate<Transport> filter) {
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(Comparator.reverseOrder());
+
+        if (k > 0 && !this.cells.isEmpty()) {
+            if (this.boundsStale) this.recomputeBounds();
+            int minX = this.minCellX, maxX = this.maxCellX, minY = this.minCellY, maxY = this.maxCellY;
+            int cx = this.cellCoord(position.getX());
+            int cy = this.cellCoord(position.getY());
+            int firstRing = Math.max(TransportGrid.gap(cx, minX, maxX), TransportGrid.gap(cy, minY, maxY));
+            int maxRing = minX > maxX ? -1 : TransportGrid.maxRing(cx, cy, minX, maxX, minY, maxY);
+
+            for (int ring = firstRing; ring <= maxRing; ring++) {
+                int fromX = (int) Math.max((long) cx - ring, minX), toX = (int) Math.min((long) cx + ring, maxX);
+                int fromY = (int) Math.max((long) cy - ring, minY), toY = (int) Math.min((long) cy + ring, maxY);
+                long top = (long) cy - ring, bottom = (long) cy + ring;
+                for (int x = fromX; x <= toX; x++) {
+                    if (x == (long) cx - ring || x == (long) cx + ring) {
+                        for (int y = fromY; y <= toY; y++) this.visit(x, y, position, k, filter, heap);
+                    } else {
+                        if (top >= minY && top <= maxY) this.visit(x, (int) top, position, k, filter, heap);
+                        if (ring > 0 && bottom >= minY && bottom <= maxY) this.visit(x, (int) bottom, position, k, filter, heap);
+                    }
+                }
+                if (heap.size() == k && heap.peek().distance < ring * this.cellSize) break;
+            }
+        }
+
+        List<Transport> ret = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) ret.add(heap.poll().transport);
+        Collections.reverse(ret);
+
+        return ret;
+    }
+
+    /**
+     * Permite obter os transportes que se encontram a uma distância máxima de uma posição
+     * e que satisfaçam um filtro. Apenas são percorridas as células que intersetam o círculo.
+     *
+     * @param position Posição de referência
+     * @param range    Distância máxima
+     * @param filter   Condição que os transportes têm de satisfazer
+     * @return Lista dos transportes dentro do alcance
+     */
+    public List<Transport> withinRange(Point2D.Double position, double range, Predicate<Transport> filter) {
+        List<Transport> ret = new ArrayList<>();
+
+        if (range < 0 || this.cells.isEmpty()) return ret;
+        if (this.boundsStale) this.recomputeBounds();
+
+        int fromX = Math.max(this.cellCoord(position.getX() - range), this.minCellX);
+        int toX = Math.min(this.cellCoord(position.getX() + range), this.maxCellX);
+        int fromY = Math.max(this.cellCoord(position.getY() - range), this.minCellY);
+        int toY = Math.min(this.cellCoord(position.getY() + range), this.maxCellY);
+
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = fromY; y <= toY; y++) {
+                Map<String, Transport> cell = this.cells.get(TransportGrid.cellKey(x, y));
+                if (cell == null) continue;
+                for (Transport t : cell.values()) {
+                    if (position.distance(t.getPosX(), t.getPosY()) <= range && filter.test(t)) {
+                        ret.add(t);
+                    }
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Considera os transportes de uma célula como candidatos à pesquisa dos 'k' mais próximos
+     */
+    private void visit(int x, int y, Point2D.Double position, int k, Predicate<Transport> filter,
+                       PriorityQueue<Candidate> heap) {
+        Map<String, Transport> cell = this.cells.get(TransportGrid.cellKey(x, y));
+        if (cell == null) return;
+
+        for (Transport t : cell.values()) {
+            Candidate candidate = new Candidate(t, position.distance(t.getPosX(), t.getPosY()));
+            if ((heap.size() < k || candidate.compareTo(heap.peek()) < 0) && filter.test(t)) {
+                heap.add(candidate);
+                if (heap.size() > k) heap.poll();
+            }
+        }
+    }
+
+    private synchronized void extendBounds(int cx, int cy) {
+        this.minCellX = Math.min(this.minCellX, cx);
+        this.maxCellX = Math.max(this.maxCellX, cx);
+        this.minCellY = Math.min(this.minCellY, cy);
+        this.maxCellY = Math.max(this.maxCellY, cy);
+    }
+
+    private int cellCoord(double value) {
+        return (int) Math.floor(value / this.cellSize);
+    }
+
+    /**
+     * Recalcula os limites das células ocupadas, depois de uma célula da fronteira ter ficado vazia
+     */
+    private synchronized void recomputeBounds() {
+        if (!this.boundsStale) return;
+        this.boundsStale = false;
+
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (long key : this.cells.keySet()) {
+            int x = (int) (key >> 32), y = (int) key;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        this.minCellX = minX;
+        this.maxCellX = maxX;
+        this.minCellY = minY;
+        this.maxCellY = maxY;
+    }
+
+    private boolean onBounds(long key) {
+        int x = (int) (key >> 32), y = (int) key;
+        return x == this.minCellX || x == this.maxCellX || y == this.minCellY || y == this.maxCellY;
+    }
+
+    /**
+     * Calcula a distância (em células) de uma coordenada a um intervalo, 0 se estiver dentro dele
+     */
+    private static int gap(int c, int min, int max) {
+        return c < min ? min - c : c > max ? c - max : 0;
+    }
+
+    /**
+     * Calcula o anel a partir do qual já não existem células ocupadas
+     */
+    private static int maxRing(int cx, int cy, int minX, int maxX, int minY, int maxY) {
+        int dx = Math.max(Math.abs(cx - minX), Math.abs(maxX - cx));
+        int dy = Math.max(Math.abs(cy - minY), Math.abs(maxY - cy));
+        return Math.max(dx, dy);
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        private Transport transport;
+        private double distance;
+
+        private Candidate(Transport transport, double distance) {
+            this.transport = transport;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate c) {
+            int r = Double.compare(this.distance, c.distance);
+            return r != 0 ? r : this.transport.getId().compareTo(c.transport.getId());
+        }
+    }
+}
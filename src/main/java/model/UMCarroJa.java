@@ -2,35 +2,93 @@ package model;
 
 import exceptions.AuthenticationError;
 import exceptions.NoAvailableTransport;
-import util.Parse;
+import persistence.Journal;
+import persistence.SnapshotStore;
+import persistence.Snapshots;
+import util.PersistentMap;
+import util.StripedLocks;
 
 import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Modelo da aplicação. Pode ser usado por várias threads em simultâneo: as alterações a uma
+ * entidade são serializadas pelo lock da sua faixa (por email ou matrícula), pelo que alterações
+ * a entidades diferentes decorrem em paralelo.
+ */
 public class UMCarroJa implements Serializable {
-    private static final String DATABASE_PATH = "data/db.ser";
-
-    private Map<String, Owner> owners;
-    private Map<String, Client> clients;
-    private Map<String, Transport> transports;
+    public static final String DATABASE_PATH = "data/db.ser";
+    private static final AtomicInteger EPOCHS = new AtomicInteger();
+    public static final Duration RESERVATION_TIMEOUT = Duration.ofMinutes(15);
+
+    private final AtomicReference<PersistentMap<String, Owner>> owners;
+    private final AtomicReference<PersistentMap<String, Client>> clients;
+    private final AtomicReference<PersistentMap<String, Transport>> transports;
+    private final StripedLocks ownerLocks;
+    private final StripedLocks clientLocks;
+    private final StripedLocks transportLocks;
+    /* As alterações partilham este lock; snapshot() e a construção dos índices usam-no em exclusivo */
+    private final ReadWriteLock snapshotLock;
+    /* Reservas em curso, por matrícula (no máximo uma por transporte); só são alteradas por compare-and-set */
+    private final ConcurrentMap<String, Reservation> reservations;
+    /* Época atual: as entidades marcadas com outra época são partilhadas com cópias do modelo */
+    private transient volatile int epoch;
+    /* Índice espacial dos transportes, reconstruído a pedido */
+    private transient volatile TransportGrid grid;
+    /* Transportes disponíveis ordenados por preço por quilómetro, por tipo, reconstruídos a pedido */
+    private transient NavigableSet<Transport> carsByPrice;
+    private transient NavigableSet<Transport> hybridsByPrice;
+    /* Classificações dos clientes por número de alugueres e por quilómetros, construídas a pedido */
+    private transient volatile Leaderboard clientsByRents;
+    private transient Leaderboard clientsByKms;
+    /* Posições nas colunas (ver FleetStore) de todos os transportes, construídas a pedido */
+    private transient volatile Fleet fleet;
+    /* Transportes ocupados, à espera do instante em que ficam disponíveis */
+    private transient AvailabilityScheduler scheduler;
+    /* Diário onde são registadas as alterações, se existir */
+    private transient volatile Journal journal;
 
     public UMCarroJa() {
-        this.owners = new HashMap<>();
-        this.clients = new HashMap<>();
-        this.transports = new HashMap<>();
+        this(PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty());
     }
 
     public UMCarroJa(UMCarroJa other) {
-        this.owners = new HashMap<>();
-        this.clients = new HashMap<>();
-        this.transports = new HashMap<>();
+        this();
+
+        other.owners.get().forEach((k, v) -> this.addOwner(other.withLock(other.ownerLocks, k, v::clone)));
+        other.clients.get().forEach((k, v) -> this.addClient(other.withLock(other.clientLocks, k, v::clone)));
+        other.transports.get().forEach((k, v) -> this.addTransport(other.withLock(other.transportLocks, k, v::clone)));
+    }
 
-        other.owners.forEach((k, v) -> this.owners.put(k, v.clone()));
-        other.clients.forEach((k, v) -> this.clients.put(k, v.clone()));
-        other.transports.forEach((k, v) -> this.transports.put(k, v.clone()));
+    private UMCarroJa(PersistentMap<String, Owner> owners,
+                      PersistentMap<String, Client> clients,
+                      PersistentMap<String, Transport> transports) {
+        this.owners = new AtomicReference<>(owners);
+        this.clients = new AtomicReference<>(clients);
+        this.transports = new AtomicReference<>(transports);
+        this.ownerLocks = new StripedLocks();
+        this.clientLocks = new StripedLocks();
+        this.transportLocks = new StripedLocks();
+        this.snapshotLock = new ReentrantReadWriteLock();
+        this.reservations = new ConcurrentHashMap<>();
+        this.epoch = EPOCHS.incrementAndGet();
     }
 
     @Override
@@ -38,11 +96,74 @@ public class UMCarroJa implements Serializable {
         return new UMCarroJa(this);
     }
 
+    /**
+     * Permite obter, em tempo constante, uma cópia do modelo consistente no instante da chamada.
+     * O modelo e a cópia partilham as entidades, que só são copiadas quando uma das partes
+     * as altera pela primeira vez.
+     *
+     * @return Cópia do modelo
+     */
+    public UMCarroJa snapshot() {
+        return this.snapshot(() -> {
+        });
+    }
+
+    /**
+     * Permite obter uma cópia do modelo, executando uma ação no mesmo instante: nenhuma alteração
+     * ocorre entre a cópia e a ação (usado para mudar de segmento do diário num checkpoint).
+     *
+     * @param action Ação a executar
+     * @return Cópia do modelo
+     */
+    public UMCarroJa snapshot(Runnable action) {
+        this.snapshotLock.writeLock().lock();
+        try {
+            UMCarroJa ret = new UMCarroJa(this.owners.get(), this.clients.get(), this.transports.get());
+            this.epoch = EPOCHS.incrementAndGet();
+            action.run();
+            return ret;
+        } finally {
+            this.snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Permite percorrer as entidades adicionadas ou alteradas desde uma cópia anterior deste modelo,
+     * obtida com snapshot(). Como as entidades alteradas são copiadas, basta comparar as duas versões,
+     * ignorando as partes que partilham, pelo que o custo depende do número de alterações.
+     *
+     * @param older      Cópia anterior
+     * @param owners     Ação a executar sobre cada proprietário alterado
+     * @param clients    Ação a executar sobre cada cliente alterado
+     * @param transports Ação a executar sobre cada transporte alterado
+     */
+    public void forEachChangedSince(UMCarroJa older, Consumer<Owner> owners, Consumer<Client> clients,
+                                    Consumer<Transport> transports) {
+        this.owners.get().forEachChangedSince(older.owners.get(), (k, v) -> owners.accept(v));
+        this.clients.get().forEachChangedSince(older.clients.get(), (k, v) -> clients.accept(v));
+        this.transports.get().forEachChangedSince(older.transports.get(), (k, v) -> transports.accept(v));
+    }
+
+    /**
+     * Permite associar um diário ao modelo: a partir daí, cada alteração é registada no diário
+     * enquanto o lock da entidade está adquirido.
+     *
+     * @param journal Diário, ou null para deixar de registar as alterações
+     */
+    public void setJournal(Journal journal) {
+        this.snapshotLock.writeLock().lock();
+        try {
+            this.journal = journal;
+        } finally {
+            this.snapshotLock.writeLock().unlock();
+        }
+    }
+
     public Set<Owner> getOwners() {
         Set<Owner> owners = new TreeSet<>();
 
-        for (Owner owner : this.owners.values()) {
-            owners.add(owner.clone());
+        for (Owner owner : this.owners.get().values()) {
+            owners.add(this.withLock(this.ownerLocks, owner.getEmail(), owner::clone));
         }
 
         return owners;
@@ -51,8 +172,8 @@ public class UMCarroJa implements Serializable {
     public Set<Client> getClients() {
         Set<Client> clients = new TreeSet<>();
 
-        for (Client client : this.clients.values()) {
-            clients.add(client.clone());
+        for (Client client : this.clients.get().values()) {
+            clients.add(this.withLock(this.clientLocks, client.getEmail(), client::clone));
         }
 
         return clients;
@@ -61,8 +182,8 @@ public class UMCarroJa implements Serializable {
     public Set<Transport> getTransports() {
         Set<Transport> transports = new TreeSet<>();
 
-        for (Transport transport : this.transports.values()) {
-            transports.add(transport.clone());
+        for (Transport transport : this.transports.get().values()) {
+            transports.add(this.withLock(this.transportLocks, transport.getId(), transport::clone));
         }
 
         return transports;
@@ -71,10 +192,8 @@ public class UMCarroJa implements Serializable {
     public Set<Transport> getCarsNormal() {
         Set<Transport> transports = new TreeSet<>();
 
-        for (Transport transport : this.transports.values()) {
-            if (transport instanceof Car) {
-                transports.add(transport.clone());
-            }
+        for (Transport transport : this.getFleet().ofType(FleetStore.CAR)) {
+            transports.add(this.withLock(this.transportLocks, transport.getId(), transport::clone));
         }
 
         return transports;
@@ -83,125 +202,443 @@ public class UMCarroJa implements Serializable {
     public Set<Transport> getCarsHybrid() {
         Set<Transport> transports = new TreeSet<>();
 
-        for (Transport transport : this.transports.values()) {
-            if (transport instanceof Hybrid) {
-                transports.add(transport.clone());
-            }
+        for (Transport transport : this.getFleet().ofType(FleetStore.HYBRID)) {
+            transports.add(this.withLock(this.transportLocks, transport.getId(), transport::clone));
         }
 
         return transports;
     }
 
+    /**
+     * Permite percorrer os proprietários sem os copiar.
+     * As entidades devolvidas pertencem ao modelo e não devem ser alteradas.
+     *
+     * @return Vista só de leitura dos proprietários
+     */
+    public Collection<Owner> viewOwners() {
+        return Collections.unmodifiableCollection(this.owners.get().values());
+    }
+
+    /**
+     * Permite percorrer os clientes sem os copiar.
+     * As entidades devolvidas pertencem ao modelo e não devem ser alteradas.
+     *
+     * @return Vista só de leitura dos clientes
+     */
+    public Collection<Client> viewClients() {
+        return Collections.unmodifiableCollection(this.clients.get().values());
+    }
+
+    /**
+     * Permite percorrer os transportes sem os copiar.
+     * As entidades devolvidas pertencem ao modelo e não devem ser alteradas.
+     *
+     * @return Vista só de leitura dos transportes
+     */
+    public Collection<Transport> viewTransports() {
+        return Collections.unmodifiableCollection(this.transports.get().values());
+    }
+
+    /**
+     * Permite consultar um cliente sem o copiar.
+     * A entidade devolvida pertence ao modelo e não deve ser alterada.
+     *
+     * @param email Email do cliente
+     * @return Cliente do modelo
+     */
+    public Client viewClient(String email) {
+        return this.clients.get().get(email);
+    }
+
+    public Owner viewOwner(String email) {
+        return this.owners.get().get(email);
+    }
+
+    public Transport viewTransport(String id) {
+        return this.transports.get().get(id);
+    }
+
     public void addClient(Client client) {
-        this.clients.put(client.getEmail(), client);
+        this.write(this.clientLocks, client.getEmail(), () -> {
+            client.epoch = this.epoch;
+            this.clients.updateAndGet(m -> m.put(client.getEmail(), client));
+            if (this.clientsByRents != null) this.rank(client);
+            this.log(j -> j.addClient(client));
+        });
     }
 
     public boolean existsClient(String email) {
-        return this.clients.containsKey(email);
+        return this.clients.get().containsKey(email);
     }
 
     public Client getClient(String email) {
-        return this.clients.get(email).clone();
+        return this.withLock(this.clientLocks, email, () -> this.clients.get().get(email).clone());
     }
 
     public void updateLocationClient(String email, Point2D.Double location) {
-        this.clients.get(email).setPosition(location);
+        this.write(this.clientLocks, email, () -> {
+            this.writableClient(email).setPosition(location);
+            this.log(j -> j.updateLocationClient(email, location));
+        });
     }
 
     public void addRatingToClient(double rating, String email) {
-        this.clients.get(email).addRating(rating);
+        this.write(this.clientLocks, email, () -> {
+            this.writableClient(email).addRating(rating);
+            this.log(j -> j.addRatingToClient(rating, email));
+        });
     }
 
     public void addAluguerToClient(Aluguer aluguer, String email) {
-        this.clients.get(email).addAluguer(aluguer);
+        this.write(this.clientLocks, email, () -> {
+            Client client = this.writableClient(email);
+            client.addAluguer(aluguer);
+            if (this.clientsByRents != null) this.rank(client);
+            this.log(j -> j.addAluguerToClient(aluguer, email));
+        });
     }
 
     public void addNotificationToClient(Notification notification, String email) {
-        this.clients.get(email).addNotification(notification);
+        this.write(this.clientLocks, email, () -> {
+            this.writableClient(email).addNotification(notification);
+            this.log(j -> j.addNotificationToClient(notification, email));
+        });
     }
 
     public void addOwner(Owner owner) {
-        this.owners.put(owner.getEmail(), owner);
+        this.write(this.ownerLocks, owner.getEmail(), () -> {
+            owner.epoch = this.epoch;
+            this.owners.updateAndGet(m -> m.put(owner.getEmail(), owner));
+            this.log(j -> j.addOwner(owner));
+        });
     }
 
     public Owner getOwner(String email) {
-        return this.owners.get(email).clone();
+        return this.withLock(this.ownerLocks, email, () -> this.owners.get().get(email).clone());
     }
 
     public boolean existsOwner(String email) {
-        return this.owners.containsKey(email);
+        return this.owners.get().containsKey(email);
     }
 
     public void addRatingToOwner(double rating, String email) {
-        this.owners.get(email).addRating(rating);
+        this.write(this.ownerLocks, email, () -> {
+            this.writableOwner(email).addRating(rating);
+            this.log(j -> j.addRatingToOwner(rating, email));
+        });
     }
 
     public void addAluguerToOwner(Aluguer aluguer, String email) {
-        this.owners.get(email).addAluguer(aluguer);
+        this.write(this.ownerLocks, email, () -> {
+            this.writableOwner(email).addAluguer(aluguer);
+            this.log(j -> j.addAluguerToOwner(aluguer, email));
+        });
     }
 
     public void addNotificationToOwner(Notification notification, String email) {
-        this.owners.get(email).addNotification(notification);
+        this.write(this.ownerLocks, email, () -> {
+            this.writableOwner(email).addNotification(notification);
+            this.log(j -> j.addNotificationToOwner(notification, email));
+        });
     }
 
     public void addTransport(Transport transport) {
-        this.transports.put(transport.getId(), transport);
+        this.write(this.transportLocks, transport.getId(), () -> {
+            Transport old = this.transports.get().get(transport.getId());
+            transport.epoch = this.epoch;
+            this.transports.updateAndGet(m -> m.put(transport.getId(), transport));
+            if (this.grid != null) {
+                if (old != null) this.unindex(old);
+                this.index(transport, LocalDateTime.now());
+            }
+            if (this.fleet != null) this.fleet.update(transport);
+            this.log(j -> j.addTransport(transport));
+        });
     }
 
     public Transport getTransport(String id) {
-        return this.transports.get(id).clone();
+        return this.withLock(this.transportLocks, id, () -> this.transports.get().get(id).clone());
     }
 
     public boolean existsTransport(String id) {
-        return this.transports.containsKey(id);
+        return this.transports.get().containsKey(id);
     }
 
     public void addRatingToTransport(double rating, String id) {
-        this.transports.get(id).addRating(rating);
+        this.write(this.transportLocks, id, () -> {
+            this.writableTransport(id).addRating(rating);
+            this.log(j -> j.addRatingToTransport(rating, id));
+        });
     }
 
     public void addAluguerToTransport(Aluguer aluguer, String id) {
-        this.transports.get(id).addAluguer(aluguer);
+        this.write(this.transportLocks, id, () -> {
+            this.writableTransport(id).addAluguer(aluguer);
+            this.log(j -> j.addAluguerToTransport(aluguer, id));
+        });
     }
 
     public void updateLocationTransport(String id, Point2D.Double origin, Point2D.Double destination) {
-        this.transports.get(id).moveTransport(origin, destination);
+        this.updateLocationTransport(id, origin, destination, LocalDateTime.now());
+    }
+
+    /**
+     * Permite mover um transporte, partindo num dado instante (ao repetir uma alteração do diário,
+     * o instante original)
+     *
+     * @param id          Matrícula
+     * @param origin      Local onde está o cliente
+     * @param destination Destino
+     * @param departure   Instante da partida
+     */
+    public void updateLocationTransport(String id, Point2D.Double origin, Point2D.Double destination,
+                                        LocalDateTime departure) {
+        this.write(this.transportLocks, id, () -> {
+            Transport transport = this.writableTransport(id);
+            if (this.grid != null) this.unindex(transport);
+            transport.moveTransport(origin, destination, departure);
+            if (this.grid != null) this.index(transport, LocalDateTime.now());
+            this.log(j -> j.updateLocationTransport(id, origin, destination, departure));
+        });
+    }
+
+    public void changeTransportPriceKm(String id, double priceKm) {
+        this.write(this.transportLocks, id, () -> {
+            Transport transport = this.writableTransport(id);
+            if (this.grid != null) this.unindex(transport);
+            transport.setPriceKm(priceKm);
+            if (this.grid != null) this.index(transport, LocalDateTime.now());
+            this.log(j -> j.changeTransportPriceKm(id, priceKm));
+        });
     }
 
     public void refillTransport(String id) {
-        this.transports.get(id).refill();
+        this.write(this.transportLocks, id, () -> {
+            Transport transport = this.writableTransport(id);
+            transport.refill();
+            this.log(j -> j.refillTransport(id));
+        });
     }
 
     public Transport getClosestCarNormal(String email) throws NoAvailableTransport {
-        return this.clients.get(email).getClosestCarNormal(this.getTransports());
+        Transport ret = this.getGrid().closest(this.clients.get().get(email).getPosition(),
+                t -> t instanceof Car && !this.isReserved(t.getId()));
+
+        if (ret == null) throw new NoAvailableTransport("Não existe nenhum carro próximo disponível.");
+
+        return this.withLock(this.transportLocks, ret.getId(), ret::clone);
     }
 
     public Transport getClosestCarHybrid(String email) throws NoAvailableTransport {
-        return this.clients.get(email).getClosestCarHybrid(this.getTransports());
+        Transport ret = this.getGrid().closest(this.clients.get().get(email).getPosition(),
+                t -> t instanceof Hybrid && !this.isReserved(t.getId()));
+
+        if (ret == null) throw new NoAvailableTransport("Não existe nenhum carro hibrido próximo disponível.");
+
+        return this.withLock(this.transportLocks, ret.getId(), ret::clone);
     }
 
-    public Transport getCheapestCarNormal(String email) throws NoAvailableTransport {
-        return this.clients.get(email).getCheapestCarNormal(this.getTransports());
+    /**
+     * Permite obter os 'k' transportes disponíveis mais próximos de um cliente
+     *
+     * @param email  Email do cliente
+     * @param k      Número máximo de transportes a devolver
+     * @param filter Condição adicional que os transportes têm de satisfazer
+     * @return Lista de cópias dos transportes não reservados, do mais próximo para o mais afastado
+     */
+    public List<Transport> nearestTransports(String email, int k, Predicate<Transport> filter) {
+        List<Transport> ret = new ArrayList<>();
+        Predicate<Transport> free = t -> !this.isReserved(t.getId());
+
+        for (Transport transport : this.getGrid().nearest(this.clients.get().get(email).getPosition(), k, free.and(filter))) {
+            ret.add(this.withLock(this.transportLocks, transport.getId(), transport::clone));
+        }
+
+        return ret;
     }
 
-    public Transport getCheapestCarHybrid(String email) throws NoAvailableTransport {
-        return this.clients.get(email).getCheapestCarHybrid(this.getTransports());
+    public Transport getCheapestCarNormal() throws NoAvailableTransport {
+        this.releaseAvailable();
+
+        for (Transport transport : this.carsByPrice) {
+            if (!this.isReserved(transport.getId())) return this.withLock(this.transportLocks, transport.getId(), transport::clone);
+        }
+
+        throw new NoAvailableTransport("Não existe nenhum carro próximo disponível.");
+    }
+
+    public Transport getCheapestCarHybrid() throws NoAvailableTransport {
+        this.releaseAvailable();
+
+        for (Transport transport : this.hybridsByPrice) {
+            if (!this.isReserved(transport.getId())) return this.withLock(this.transportLocks, transport.getId(), transport::clone);
+        }
+
+        throw new NoAvailableTransport("Não existe nenhum carro próximo disponível.");
     }
 
     public Transport getCheapestCarNormalInWalkRange(String email, double walk) throws NoAvailableTransport {
-        return this.clients.get(email).getCheapestTransportInWalkRange(this.getCarsNormal(), walk);
+        return this.getCheapestInWalkRange(email, walk, t -> t instanceof Car);
     }
 
     public Transport getCheapestCarHybridInWalkRange(String email, double walk) throws NoAvailableTransport {
-        return this.clients.get(email).getCheapestTransportInWalkRange(this.getCarsHybrid(), walk);
+        return this.getCheapestInWalkRange(email, walk, t -> t instanceof Hybrid);
+    }
+
+    /**
+     * Permite obter o transporte disponível mais barato a uma distância máxima de um cliente.
+     * Só são consultadas as células da grelha que o círculo interseta; em caso de empate no preço,
+     * é escolhido o de menor matrícula.
+     *
+     * @param email Email do cliente
+     * @param walk  Distância máxima que o cliente está disposto a percorrer
+     * @param type  Tipo de transporte
+     * @return Cópia do transporte
+     * @throws NoAvailableTransport Caso não exista nenhum transporte nas condições requisitadas
+     */
+    private Transport getCheapestInWalkRange(String email, double walk, Predicate<Transport> type) throws NoAvailableTransport {
+        List<Transport> inRange = this.getGrid().withinRange(this.clients.get().get(email).getPosition(), walk,
+                type.and(t -> !this.isReserved(t.getId())));
+
+        if (inRange.isEmpty()) throw new NoAvailableTransport("Não existe nenhum transporte nas condições requisitadas.");
+
+        Transport ret = Collections.min(inRange, new CompareByPrice());
+        return this.withLock(this.transportLocks, ret.getId(), ret::clone);
+    }
+
+    /**
+     * Permite reservar um transporte disponível para um cliente durante RESERVATION_TIMEOUT
+     *
+     * @param id     Matrícula do transporte
+     * @param client Email do cliente
+     * @return 'true' se o transporte ficou reservado para o cliente ou 'false' se estiver
+     * ocupado ou reservado por outro cliente
+     */
+    public boolean reserveTransport(String id, String client) {
+        return this.reserveTransport(id, client, RESERVATION_TIMEOUT);
+    }
+
+    /**
+     * Permite reservar um transporte disponível para um cliente. A reserva é feita por
+     * compare-and-set, pelo que pedidos simultâneos sobre o mesmo transporte nunca são ambos aceites.
+     *
+     * @param id      Matrícula do transporte
+     * @param client  Email do cliente
+     * @param timeout Duração da reserva
+     * @return 'true' se o transporte ficou reservado para o cliente ou 'false' se estiver
+     * ocupado ou reservado por outro cliente
+     */
+    public boolean reserveTransport(String id, String client, Duration timeout) {
+        LocalDateTime now = LocalDateTime.now();
+        Reservation reservation = new Reservation(client, now.plus(timeout));
+        Reservation current;
+
+        /* As reservas expiradas são substituídas aqui ou removidas por isReserved, chave a chave */
+        do {
+            current = this.reservations.get(id);
+            if (current != null && current.isActive(now) && !current.belongsTo(client)) return false;
+            if (current != null && current.isCommitting()) return false;
+        } while (current == null ? this.reservations.putIfAbsent(id, reservation) != null
+                : !this.reservations.replace(id, current, reservation));
+
+        /* Verificado depois de reservar: uma confirmação anterior só liberta a reserva depois de mover o transporte */
+        Transport transport = this.transports.get().get(id);
+        if (transport == null || !UMCarroJa.isAvailableAt(transport, now)) {
+            this.reservations.remove(id, reservation);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Permite reservar o primeiro transporte encontrado por uma pesquisa, repetindo-a enquanto
+     * outro cliente reservar primeiro o transporte encontrado
+     *
+     * @param email  Email do cliente
+     * @param search Pesquisa do transporte (por exemplo, model::getClosestCarNormal)
+     * @return Cópia do transporte reservado
+     * @throws NoAvailableTransport Caso não exista nenhum transporte disponível
+     */
+    public Transport reserve(String email, TransportSearch search) throws NoAvailableTransport {
+        Transport transport;
+
+        do {
+            transport = search.find(email);
+        } while (!this.reserveTransport(transport.getId(), email));
+
+        return transport;
+    }
+
+    /**
+     * Permite confirmar a reserva de um transporte, fazendo a viagem correspondente.
+     * O proprietário pode aceitar o pedido muito depois de o cliente ter reservado o transporte (ou depois
+     * de a aplicação ter sido reiniciada, já que as reservas não são gravadas), pelo que a reserva é
+     * primeiro renovada para o cliente, desde que o transporte continue disponível e sem outra reserva.
+     *
+     * @param id          Matrícula do transporte
+     * @param client      Email do cliente que fez a reserva
+     * @param origin      Origem da viagem
+     * @param destination Destino da viagem
+     * @return 'true' se a viagem foi feita ou 'false' se o transporte estiver ocupado ou reservado
+     * por outro cliente
+     */
+    public boolean commitReservation(String id, String client, Point2D.Double origin, Point2D.Double destination) {
+        if (!this.reserveTransport(id, client)) return false;
+
+        Reservation current = this.reservations.get(id);
+        if (current == null || !current.belongsTo(client) || !current.isActive(LocalDateTime.now())) return false;
+
+        Reservation committing = new Reservation(client, null);
+        if (!this.reservations.replace(id, current, committing)) return false;
+
+        try {
+            this.updateLocationTransport(id, origin, destination);
+        } finally {
+            this.reservations.remove(id, committing);
+        }
+
+        return true;
+    }
+
+    /**
+     * Permite cancelar a reserva de um transporte
+     *
+     * @param id     Matrícula do transporte
+     * @param client Email do cliente que fez a reserva
+     */
+    public void releaseReservation(String id, String client) {
+        Reservation current = this.reservations.get(id);
+
+        if (current != null && current.belongsTo(client) && !current.isCommitting()) {
+            this.reservations.remove(id, current);
+        }
+    }
+
+    /**
+     * Permite verificar se um transporte tem uma reserva em vigor
+     *
+     * @param id Matrícula do transporte
+     * @return 'true' se o transporte estiver reservado ou 'false' caso contrário
+     */
+    public boolean isReserved(String id) {
+        Reservation reservation = this.reservations.get(id);
+
+        if (reservation != null && !reservation.isActive(LocalDateTime.now())) {
+            this.reservations.remove(id, reservation);
+            return false;
+        }
+
+        return reservation != null;
     }
 
     public RentNotification getTransportRentNotification(String client, String registration, String mode, Point2D.Double destination) {
-        double distance = this.getClient(client).getPosition().distance(destination);
-        double eta = distance / this.getTransport(registration).getAvgVelocity();
-        double price = this.getTransport(registration).getPriceKm() * distance;
+        Transport transport = this.transports.get().get(registration);
+        double distance = this.clients.get().get(client).getPosition().distance(destination);
+        double eta = distance / transport.getAvgVelocity();
+        double price = transport.getPriceKm() * distance;
 
-        return new RentNotification(this.clients.get(client).getNif(), registration,
+        return new RentNotification(this.clients.get().get(client).getNif(), registration,
                 client, mode, destination, price, eta + this.getDelay(client, eta));
     }
 
@@ -212,14 +649,14 @@ public class UMCarroJa implements Serializable {
 
         if ((hour >= 8 && hour < 10) || (hour >= 17 && hour < 19)) delay = eta * 0.20;
 
-        delay += eta * 0.001 * new Weather(this.clients.get(client).getPosition()).getPrecipitation();
+        delay += eta * 0.001 * new Weather(this.clients.get().get(client).getPosition()).getPrecipitation();
 
         return delay;
     }
 
     public boolean loginCliente(String email, String password) throws AuthenticationError {
         if (this.existsClient(email)) {
-            if (this.clients.get(email).getHashedPassword().equals(Client.hashPassword(password))) {
+            if (this.clients.get().get(email).getHashedPassword().equals(Client.hashPassword(password))) {
                 return true;
             } else {
                 return false;
@@ -231,7 +668,7 @@ public class UMCarroJa implements Serializable {
 
     public boolean loginOwner(String email, String password) throws AuthenticationError {
         if (this.existsOwner(email)) {
-            if (this.owners.get(email).getHashedPassword().equals(Owner.hashPassword(password))) {
+            if (this.owners.get().get(email).getHashedPassword().equals(Owner.hashPassword(password))) {
                 return true;
             } else {
                 return false;
@@ -242,41 +679,50 @@ public class UMCarroJa implements Serializable {
     }
 
     public void save() throws IOException {
-        Parse.saveObject(this, DATABASE_PATH);
+        Snapshots.save(this.snapshot(), Paths.get(DATABASE_PATH));
     }
 
-    public UMCarroJa load() throws ClassNotFoundException, IOException {
-        return (UMCarroJa) Parse.loadObject(DATABASE_PATH);
+    /**
+     * Permite carregar o modelo gravado, incluindo os deltas gravados sobre o snapshot completo
+     */
+    public UMCarroJa load() throws IOException {
+        return new SnapshotStore(Paths.get(DATABASE_PATH)).load();
     }
 
     public int getSize() {
-        return this.clients.size() + this.owners.size() + this.transports.size();
+        return this.clients.get().size() + this.owners.get().size() + this.transports.get().size();
     }
 
+    /**
+     * Permite obter os n melhores clientes por número de alugueres ("performedRents") ou por
+     * quilómetros percorridos ("travelledKms"). As classificações são mantidas à medida que os
+     * alugueres são registados, pelo que a consulta é O(n).
+     *
+     * @param n          Número de clientes
+     * @param comparator Critério
+     * @return Tabela com os clientes, do primeiro para o último
+     */
     public List<List<String>> getTopClientsBy(int n, String comparator) {
-        SortedSet<Client> aux;
         List<List<String>> ret = new ArrayList<>();
+        List<String> top = new ArrayList<>();
 
-        if (comparator.equals("travelledKms")) {
-            aux = new TreeSet<>(User.userComparators.get("travelledKms"));
-        } else if (comparator.equals("performedRents")) {
-            aux = new TreeSet<>(User.userComparators.get("performedRents"));
+        if (comparator.equals("travelledKms") || comparator.equals("performedRents")) {
+            this.buildLeaderboards();
+            top = (comparator.equals("travelledKms") ? this.clientsByKms : this.clientsByRents).top(n);
         } else {
-            aux = new TreeSet<>();
+            Iterator<Client> itr = new TreeSet<>(this.clients.get().values()).iterator();
+            for (int i = 0; itr.hasNext() && i < n; i++) top.add(itr.next().getEmail());
         }
 
-        for (Client c : this.clients.values())
-            aux.add(c.clone());
-
-        Iterator<Client> itr = aux.iterator();
-
-        for (int i = 0; itr.hasNext() && i < n; i++) {
-            List<String> ls = new ArrayList<>();
-            Client client = itr.next();
-            ls.add("Email: " + client.getEmail());
-            ls.add("Used the application: " + client.performedRents() + " times");
-            ls.add("Travelled: " + client.travelledKms() + " kms");
-            ret.add(ls);
+        for (String email : top) {
+            ret.add(this.withLock(this.clientLocks, email, () -> {
+                Client client = this.clients.get().get(email);
+                List<String> ls = new ArrayList<>();
+                ls.add("Email: " + client.getEmail());
+                ls.add("Used the application: " + client.performedRents() + " times");
+                ls.add("Travelled: " + client.travelledKms() + " kms");
+                return ls;
+            }));
         }
 
         return ret;
@@ -284,7 +730,7 @@ public class UMCarroJa implements Serializable {
 
     public List<List<String>> getRentsFromClient(String email) {
         List<List<String>> ret = new ArrayList<>();
-        List<Aluguer> alugueres = this.clients.get(email).getRents();
+        List<Aluguer> alugueres = this.withLock(this.clientLocks, email, () -> this.clients.get().get(email).getRents());
 
         for (Aluguer aluguer : alugueres) {
             ret.add(aluguer.toShow());
@@ -294,21 +740,14 @@ public class UMCarroJa implements Serializable {
     }
 
     public List<List<String>> getRentsFromClientBetween(String email, LocalDateTime begin, LocalDateTime end) {
-        List<List<String>> ret = new ArrayList<>();
-        List<Aluguer> alugueres = this.clients.get(email).getRents();
-
-        for (Aluguer aluguer : alugueres) {
-            if (aluguer.getDate().isAfter(begin) && aluguer.getDate().isBefore(end)) {
-                ret.add(aluguer.toShow());
-            }
-        }
-
-        return ret;
+        return this.withLock(this.clientLocks, email, () -> this.clients.get().get(email).viewRentsBetween(begin, end).stream()
+                .map(Aluguer::toShow)
+                .collect(Collectors.toList()));
     }
 
     public List<List<String>> getRentsFromOwner(String email) {
         List<List<String>> ret = new ArrayList<>();
-        List<Aluguer> alugueres = this.owners.get(email).getRents();
+        List<Aluguer> alugueres = this.withLock(this.ownerLocks, email, () -> this.owners.get().get(email).getRents());
 
         for (Aluguer aluguer : alugueres) {
             ret.add(aluguer.toShow());
@@ -318,28 +757,21 @@ public class UMCarroJa implements Serializable {
     }
 
     public List<List<String>> getRentsFromOwnerBetween(String email, LocalDateTime begin, LocalDateTime end) {
-        List<List<String>> ret = new ArrayList<>();
-        List<Aluguer> alugueres = this.owners.get(email).getRents();
-
-        for (Aluguer aluguer : alugueres) {
-            if (aluguer.getDate().isAfter(begin) && aluguer.getDate().isBefore(end)) {
-                ret.add(aluguer.toShow());
-            }
-        }
-
-        return ret;
+        return this.withLock(this.ownerLocks, email, () -> this.owners.get().get(email).viewRentsBetween(begin, end).stream()
+                .map(Aluguer::toShow)
+                .collect(Collectors.toList()));
     }
 
     public List<Notification> getPendingTasks(String email) {
         List<Notification> ret = new ArrayList<>();
 
         if (this.existsClient(email)) {
-            for (Notification notification : this.clients.get(email).getPendingTasks()) {
+            for (Notification notification : this.withLock(this.clientLocks, email, () -> this.clients.get().get(email).getPendingTasks())) {
                 if (notification.isPendent())
                     ret.add(notification);
             }
         } else if (this.existsOwner(email)) {
-            for (Notification notification : this.owners.get(email).getPendingTasks()) {
+            for (Notification notification : this.withLock(this.ownerLocks, email, () -> this.owners.get().get(email).getPendingTasks())) {
                 if (notification.isPendent())
                     ret.add(notification);
             }
@@ -350,7 +782,7 @@ public class UMCarroJa implements Serializable {
 
     public List<List<String>> getPendingTasksFromClient(String email) {
         List<List<String>> ret = new ArrayList<>();
-        List<Notification> notifications = this.clients.get(email).getPendingTasks();
+        List<Notification> notifications = this.withLock(this.clientLocks, email, () -> this.clients.get().get(email).getPendingTasks());
 
         for (Notification notification : notifications) {
             ret.add(notification.toShow());
@@ -361,7 +793,7 @@ public class UMCarroJa implements Serializable {
 
     public List<List<String>> getPendingTasksFromOwner(String email) {
         List<List<String>> ret = new ArrayList<>();
-        List<Notification> notifications = this.owners.get(email).getPendingTasks();
+        List<Notification> notifications = this.withLock(this.ownerLocks, email, () -> this.owners.get().get(email).getPendingTasks());
 
         for (Notification notification : notifications) {
             if (notification.isPendent()) {
@@ -373,16 +805,23 @@ public class UMCarroJa implements Serializable {
     }
 
     public String getWeatherFromClient(String email) {
-        return new Weather(this.clients.get(email).getPosition()).toString();
+        return new Weather(this.clients.get().get(email).getPosition()).toString();
+    }
+
+    public List<List<String>> getAvaibleCarsNormalByDesiredAutonomy(double autonomy) {
+        return this.getAvaibleTransportsByDesiredAutonomy(FleetStore.CAR, autonomy);
+    }
+
+    public List<List<String>> getAvaibleCarsHybridByDesiredAutonomy(double autonomy) {
+        return this.getAvaibleTransportsByDesiredAutonomy(FleetStore.HYBRID, autonomy);
     }
 
-    public List<List<String>> getAvaibleTransportsByDesiredAutonomy(Set<Transport> transports, double autonomy) {
+    private List<List<String>> getAvaibleTransportsByDesiredAutonomy(byte type, double autonomy) {
         List<List<String>> ret = new ArrayList<>();
+        Set<Transport> transports = new TreeSet<>(this.getFleet().available(type, LocalDateTime.now(), autonomy));
 
         for (Transport transport : transports) {
-            if (transport.isAvailable() && transport.hasAutonomy(autonomy)) {
-                ret.add(transport.toShow());
-            }
+            if (!this.isReserved(transport.getId())) ret.add(transport.toShow());
         }
 
         return ret;
@@ -391,10 +830,10 @@ public class UMCarroJa implements Serializable {
     public List<List<String>> getAvaibleTransportsNormal() {
         List<List<String>> ret = new ArrayList<>();
 
-        for (Transport transport : this.transports.values()) {
-            if (transport.isAvailable() && transport instanceof Car) {
-                ret.add(transport.toShow());
-            }
+        this.releaseAvailable();
+
+        for (Transport transport : this.carsByPrice) {
+            if (!this.isReserved(transport.getId())) ret.add(transport.toShow());
         }
 
         return ret;
@@ -403,10 +842,10 @@ public class UMCarroJa implements Serializable {
     public List<List<String>> getAvaibleTransportsHybrid() {
         List<List<String>> ret = new ArrayList<>();
 
-        for (Transport transport : this.transports.values()) {
-            if (transport.isAvailable() && transport instanceof Hybrid) {
-                ret.add(transport.toShow());
-            }
+        this.releaseAvailable();
+
+        for (Transport transport : this.hybridsByPrice) {
+            if (!this.isReserved(transport.getId())) ret.add(transport.toShow());
         }
 
         return ret;
@@ -415,7 +854,7 @@ public class UMCarroJa implements Serializable {
     public List<List<String>> getTransportsFromOwner(String email) {
         List<List<String>> ret = new ArrayList<>();
 
-        for (Transport transport : this.transports.values()) {
+        for (Transport transport : this.transports.get().values()) {
             if (transport.getEmail().equals(email)) {
                 ret.add(transport.toShow());
             }
@@ -426,18 +865,260 @@ public class UMCarroJa implements Serializable {
 
     public List<List<String>> getTotalTransportIncome(String id, LocalDateTime begin, LocalDateTime end) {
         List<List<String>> ret = new ArrayList<>();
-        List<String> ls = this.transports.get(id).toShow();
-        double income = 0;
+        List<String> ls = this.transports.get().get(id).toShow();
+        double income = this.withLock(this.transportLocks, id, () -> this.transports.get().get(id).getIncomeBetween(begin, end));
 
-        for (Aluguer aluguer : this.transports.get(id).getAlugueres()) {
-            if (aluguer.getDate().isAfter(begin) && aluguer.getDate().isBefore(end))
-                income += aluguer.getPrice();
-        }
+        ls.add("Total income: " + income + " €");
+
+        ret.add(ls);
 
+        return ret;
+    }
+
+    /**
+     * Permite obter a receita de todos os transportes de um proprietário entre duas datas
+     *
+     * @param email Email do proprietário
+     * @param begin Data de início (exclusiva)
+     * @param end   Data de fim (exclusiva)
+     * @return Tabela com o proprietário e a sua receita
+     */
+    public List<List<String>> getTotalOwnerIncome(String email, LocalDateTime begin, LocalDateTime end) {
+        List<List<String>> ret = new ArrayList<>();
+        List<String> ls = new ArrayList<>();
+        double income = this.withLock(this.ownerLocks, email, () -> this.owners.get().get(email).getIncomeBetween(begin, end));
+
+        ls.add("Owner: " + email);
         ls.add("Total income: " + income + " €");
 
         ret.add(ls);
 
         return ret;
     }
+
+    /**
+     * Executa uma alteração com o lock da faixa da entidade
+     */
+    private void write(StripedLocks locks, String key, Runnable action) {
+        this.snapshotLock.readLock().lock();
+        try {
+            Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                action.run();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Regista uma alteração no diário, caso exista. Chamado com o lock da entidade adquirido, para que
+     * a ordem do diário coincida com a ordem das alterações
+     */
+    private void log(Consumer<Journal> record) {
+        Journal journal = this.journal;
+        if (journal != null) record.accept(journal);
+    }
+
+    /**
+     * Executa uma leitura com o lock da faixa da entidade
+     */
+    private <T> T withLock(StripedLocks locks, String key, Supplier<T> action) {
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devolve o cliente, copiando-o primeiro caso seja partilhado com uma cópia do modelo
+     */
+    private Client writableClient(String email) {
+        Client client = this.clients.get().get(email);
+
+        if (client.epoch != this.epoch) {
+            Client copy = client.clone();
+            copy.epoch = this.epoch;
+            this.clients.updateAndGet(m -> m.put(email, copy));
+            client = copy;
+        }
+
+        return client;
+    }
+
+    private Owner writableOwner(String email) {
+        Owner owner = this.owners.get().get(email);
+
+        if (owner.epoch != this.epoch) {
+            Owner copy = owner.clone();
+            copy.epoch = this.epoch;
+            this.owners.updateAndGet(m -> m.put(email, copy));
+            owner = copy;
+        }
+
+        return owner;
+    }
+
+    private Transport writableTransport(String id) {
+        Transport transport = this.transports.get().get(id);
+
+        if (transport.epoch != this.epoch) {
+            Transport copy = transport.clone();
+            copy.epoch = this.epoch;
+            this.transports.updateAndGet(m -> m.put(id, copy));
+            if (this.grid != null) {
+                this.unindex(transport);
+                this.index(copy, LocalDateTime.now());
+            }
+            if (this.fleet != null) this.fleet.update(copy);
+            transport = copy;
+        }
+
+        return transport;
+    }
+
+    /**
+     * Devolve o índice espacial dos transportes disponíveis
+     */
+    private TransportGrid getGrid() {
+        this.releaseAvailable();
+        return this.grid;
+    }
+
+    /**
+     * Constrói os índices dos transportes (caso ainda não existam) e passa para os índices
+     * de transportes disponíveis todos os transportes cuja viagem já terminou
+     */
+    private void releaseAvailable() {
+        LocalDateTime now = LocalDateTime.now();
+
+        if (this.grid == null) {
+            this.snapshotLock.writeLock().lock();
+            try {
+                if (this.grid == null) {
+                    this.carsByPrice = new ConcurrentSkipListSet<>(new CompareByPrice());
+                    this.hybridsByPrice = new ConcurrentSkipListSet<>(new CompareByPrice());
+                    this.scheduler = new AvailabilityScheduler();
+                    TransportGrid grid = new TransportGrid();
+                    for (Transport transport : this.transports.get().values()) {
+                        if (UMCarroJa.isAvailableAt(transport, now)) {
+                            grid.update(transport);
+                            this.getPriceIndex(transport).add(transport);
+                        } else {
+                            this.scheduler.schedule(transport);
+                        }
+                    }
+                    /* Só é publicado depois de completo */
+                    this.grid = grid;
+                }
+            } finally {
+                this.snapshotLock.writeLock().unlock();
+            }
+        } else {
+            for (Transport transport : this.scheduler.release(now)) {
+                this.withLock(this.transportLocks, transport.getId(), () -> {
+                    /* O transporte pode ter sido substituído ou reagendado entretanto */
+                    if (this.transports.get().get(transport.getId()) == transport) {
+                        this.unindex(transport);
+                        this.index(transport, now);
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * Devolve a frota, construindo-a caso ainda não exista
+     */
+    private Fleet getFleet() {
+        if (this.fleet == null) {
+            this.snapshotLock.writeLock().lock();
+            try {
+                if (this.fleet == null) {
+                    Fleet fleet = new Fleet();
+                    for (Transport transport : this.transports.get().values())
+                        fleet.update(transport);
+                    /* Só é publicado depois de completo */
+                    this.fleet = fleet;
+                }
+            } finally {
+                this.snapshotLock.writeLock().unlock();
+            }
+        }
+
+        return this.fleet;
+    }
+
+    /**
+     * Constrói as classificações dos clientes, caso ainda não existam
+     */
+    private void buildLeaderboards() {
+        if (this.clientsByRents != null) return;
+
+        this.snapshotLock.writeLock().lock();
+        try {
+            if (this.clientsByRents == null) {
+                this.clientsByKms = new Leaderboard();
+                Leaderboard byRents = new Leaderboard();
+                for (Client client : this.clients.get().values()) {
+                    byRents.update(client.getEmail(), client.performedRents());
+                    this.clientsByKms.update(client.getEmail(), client.travelledKms());
+                }
+                /* Só é publicada depois de completa */
+                this.clientsByRents = byRents;
+            }
+        } finally {
+            this.snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Atualiza a posição de um cliente nas classificações, com o lock do cliente
+     */
+    private void rank(Client client) {
+        this.clientsByRents.update(client.getEmail(), client.performedRents());
+        this.clientsByKms.update(client.getEmail(), client.travelledKms());
+    }
+
+    /**
+     * Coloca um transporte nos índices de transportes disponíveis ou, caso esteja ocupado,
+     * agenda-o para o instante em que fica disponível
+     */
+    private void index(Transport transport, LocalDateTime now) {
+        if (UMCarroJa.isAvailableAt(transport, now)) {
+            this.grid.update(transport);
+            this.getPriceIndex(transport).add(transport);
+        } else {
+            this.scheduler.schedule(transport);
+        }
+    }
+
+    private void unindex(Transport transport) {
+        this.grid.remove(transport.getId());
+        this.getPriceIndex(transport).remove(transport);
+        this.scheduler.remove(transport.getId());
+    }
+
+    private static boolean isAvailableAt(Transport transport, LocalDateTime now) {
+        return transport.isAvailableAt(now);
+    }
+
+    private NavigableSet<Transport> getPriceIndex(Transport transport) {
+        return transport instanceof Hybrid ? this.hybridsByPrice : this.carsByPrice;
+    }
+
+    /**
+     * Pesquisa de um transporte para um cliente
+     */
+    @FunctionalInterface
+    public interface TransportSearch {
+        Transport find(String email) throws NoAvailableTransport;
+    }
 }
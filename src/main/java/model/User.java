@@ -5,6 +5,7 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -18,9 +19,14 @@ public abstract class User implements Serializable, Comparable<User> {
     private String hashedPassword;
     private LocalDate birthday;
     private double rating;
-    private List<Aluguer> rents;
+    private RentHistory rents;
     private List<Notification> pendingTasks;
-    private List<Double> classificacoes;
+    private RatingStore classificacoes;
+    /* Época do modelo a que a instância pertence (ver UMCarroJa.snapshot) */
+    transient int epoch;
+    /* Quilómetros percorridos, calculados no primeiro uso e depois mantidos (ver Aggregates) */
+    private transient double kms;
+    private transient boolean kmsKnown;
 
     private static float DEFAULT_RATING = 50;
     private static String DEFAULT_NAME = "undefined";
@@ -71,9 +77,11 @@ public abstract class User implements Serializable, Comparable<User> {
         this.hashedPassword = p.getHashedPassword();
         this.birthday = p.getBirthday();
         this.rating = p.getRating();
-        this.rents = p.getRents();
+        this.rents = new RentHistory(p.rents);
+        this.kms = p.kms;
+        this.kmsKnown = p.kmsKnown;
         this.pendingTasks = p.getPendingTasks();
-        this.classificacoes = p.getClassificacoes();
+        this.classificacoes = new RatingStore(p.classificacoes);
     }
 
     /**
@@ -97,9 +105,9 @@ public abstract class User implements Serializable, Comparable<User> {
         this.address = address;
         this.birthday = LocalDate.now();
         this.rating = DEFAULT_RATING;
-        this.rents = new ArrayList<>();
+        this.rents = new RentHistory();
         this.pendingTasks = new ArrayList<>();
-        this.classificacoes = new ArrayList<>();
+        this.classificacoes = new RatingStore();
     }
 
     /**
@@ -121,9 +129,46 @@ public abstract class User implements Serializable, Comparable<User> {
         this.hashedPassword = hashPassword(DEFAULT_PASSWORD);
         this.birthday = LocalDate.now();
         this.rating = DEFAULT_RATING;
-        this.rents = new ArrayList<>();
+        this.rents = new RentHistory();
         this.pendingTasks = new ArrayList<>();
-        this.classificacoes = new ArrayList<>();
+        this.classificacoes = new RatingStore();
+    }
+
+    /**
+     * Construtor parametrizado com todo o estado de um usuário, usado ao carregar o modelo.
+     * As listas passam a pertencer ao usuário, sem serem copiadas.
+     *
+     * @param name           Nome de usuário
+     * @param nif            NIF do usuário
+     * @param email          Email do usuário
+     * @param address        Morada do usuário
+     * @param hashedPassword Password 'hasheada'
+     * @param birthday       Data de nascimento
+     * @param rating         Rating do usuário
+     * @param rents          Alugueres do usuário
+     * @param pendingTasks   Notificações do usuário
+     * @param classificacoes Classificações do usuário
+     */
+    protected User(String name,
+                   int nif,
+                   String email,
+                   String address,
+                   String hashedPassword,
+                   LocalDate birthday,
+                   double rating,
+                   List<Aluguer> rents,
+                   List<Notification> pendingTasks,
+                   RatingStore classificacoes) {
+        this.name = name;
+        this.nif = nif;
+        this.email = email;
+        this.address = address;
+        this.hashedPassword = hashedPassword;
+        this.birthday = birthday;
+        this.rating = rating;
+        this.rents = new RentHistory(rents);
+        this.pendingTasks = pendingTasks;
+        this.classificacoes = classificacoes;
     }
 
     /**
@@ -203,7 +248,47 @@ public abstract class User implements Serializable, Comparable<User> {
     }
 
     public List<Double> getClassificacoes() {
-        return this.classificacoes.stream().collect(Collectors.toList());
+        return new ArrayList<>(this.classificacoes.asList());
+    }
+
+    /**
+     * Permite percorrer os alugueres de um usuário sem os copiar.
+     * Os alugueres devolvidos pertencem ao usuário e não devem ser alterados.
+     *
+     * @return Vista só de leitura dos alugueres
+     */
+    public List<Aluguer> viewRents() {
+        return Collections.unmodifiableList(this.rents);
+    }
+
+    /**
+     * Permite obter os alugueres feitos estritamente entre duas datas, por pesquisa binária no histórico
+     * ordenado por data. Os alugueres devolvidos pertencem ao usuário e não devem ser alterados.
+     *
+     * @param begin Data de início (exclusiva)
+     * @param end   Data de fim (exclusiva)
+     * @return Vista só de leitura dos alugueres, por ordem de data
+     */
+    public List<Aluguer> viewRentsBetween(LocalDateTime begin, LocalDateTime end) {
+        return this.rents.between(begin, end);
+    }
+
+    public List<Notification> viewPendingTasks() {
+        return Collections.unmodifiableList(this.pendingTasks);
+    }
+
+    public List<Double> viewClassificacoes() {
+        return this.classificacoes.asList();
+    }
+
+    /**
+     * Permite consultar as classificações sem as copiar nem converter em Double (média, percentis, ...).
+     * As classificações devolvidas pertencem ao usuário e não devem ser alteradas.
+     *
+     * @return Classificações do usuário
+     */
+    public RatingStore viewRatings() {
+        return this.classificacoes;
     }
 
     /**
@@ -275,7 +360,8 @@ public abstract class User implements Serializable, Comparable<User> {
      * @param l Lista de alugueres a definir
      */
     public void setRents(List<Aluguer> l) {
-        this.rents = l.stream().map(Aluguer::clone).collect(Collectors.toList());
+        this.rents = new RentHistory(l.stream().map(Aluguer::clone).collect(Collectors.toList()));
+        this.kmsKnown = false;
     }
 
     public void setClassificacoes(List<Double> l) {
@@ -288,6 +374,7 @@ public abstract class User implements Serializable, Comparable<User> {
 
     public void addAluguer(Aluguer a) {
         this.rents.add(a.clone());
+        if (this.kmsKnown) this.kms += a.getOrigin().distance(a.getDestination());
     }
 
     public void addRating(double rating) {
@@ -329,7 +416,7 @@ public abstract class User implements Serializable, Comparable<User> {
                 Double.compare(this.rating, that.rating) == 0 &&
                 this.rents.equals(that.getRents()) &&
                 this.pendingTasks.equals(that.getPendingTasks()) &&
-                this.classificacoes.equals(that.getClassificacoes());
+                this.classificacoes.equals(that.classificacoes);
     }
 
     @Override
@@ -378,10 +465,13 @@ public abstract class User implements Serializable, Comparable<User> {
      */
     public abstract User clone();
 
+    /**
+     * Permite calcular o rating do usuário, a média das suas classificações, em O(1)
+     *
+     * @return Média das classificações
+     */
     public double calculateRating() {
-        double sum = 0;
-        for (double i : this.classificacoes)
-            sum += i;
+        double sum = Aggregates.check("Rating sum", this.email, this.classificacoes.sum(), this.classificacoes::recomputeSum);
         return (sum / this.classificacoes.size());
     }
 
@@ -389,10 +479,17 @@ public abstract class User implements Serializable, Comparable<User> {
         return this.rents.size();
     }
 
+    /**
+     * Permite obter os quilómetros percorridos nos alugueres do usuário. São calculados
+     * no primeiro pedido e acumulados a cada aluguer acrescentado, pelo que os pedidos seguintes são O(1).
+     *
+     * @return Quilómetros percorridos
+     */
     public double travelledKms() {
-        double totalKm = 0;
-        for (Aluguer l : this.rents)
-            totalKm += l.getOrigin().distance(l.getDestination());
-        return totalKm;
+        if (!this.kmsKnown) {
+            this.kms = Aggregates.kms(this.rents);
+            this.kmsKnown = true;
+        }
+        return Aggregates.check("Travelled kms", this.email, this.kms, () -> Aggregates.kms(this.rents));
     }
 }
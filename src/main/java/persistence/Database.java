@@ -0,0 +1,230 @@
+package persistence;
+
+import model.UMCarroJa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Model kept on disk by a {@link Journal} and periodic checkpoints, all in one directory.
+ * <p>
+ * 'checkpoint-n.db' is a snapshot holding every change logged in the segments before n, and the segments
+ * from n onwards hold the changes made since. Opening the directory loads the latest checkpoint and replays
+ * those segments. A new checkpoint is requested once the current segment grows past {@link #CHECKPOINT_BYTES};
+ * it is written by a {@link SaveService}, after which the older files are deleted, so recovery time stays
+ * bounded without blocking the model. A background checkpoint that fails is reported by the next
+ * {@link #sync()} or {@link #close()}; the journal still holds its changes, so nothing is lost.
+ */
+public class Database implements Closeable {
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".db";
+    private static final long CHECKPOINT_BYTES = 64L << 20;
+    private static final long CHECKPOINT_PERIOD_SECONDS = 30;
+
+    private final Path directory;
+    private final Journal journal;
+    private final ScheduledExecutorService checkpointer;
+    private final SaveService saves;
+    /* First failure of a background checkpoint not yet reported */
+    private final AtomicReference<IOException> checkpointFailure;
+    private volatile UMCarroJa model;
+
+    private Database(Path directory, UMCarroJa model, Journal journal) {
+        this.directory = directory;
+        this.journal = journal;
+        this.model = model;
+        this.model.setJournal(journal);
+        this.saves = new SaveService();
+        this.checkpointFailure = new AtomicReference<>();
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.checkpointer.scheduleWithFixedDelay(this::checkpointIfNeeded, CHECKPOINT_PERIOD_SECONDS,
+                CHECKPOINT_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens (or creates) a database, recovering its model from the latest checkpoint and the journal.
+     *
+     * @param directory Directory of the database
+     * @return Database
+     * @throws IOException if the files can't be read
+     */
+    public static Database open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        List<Long> checkpoints = Database.numbers(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        long base = checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1);
+        UMCarroJa model = checkpoints.isEmpty() ? new UMCarroJa() : Snapshots.load(Database.checkpointPath(directory, base));
+
+        long last = base;
+        for (long segment : Database.numbers(directory, Journal.PREFIX, Journal.SUFFIX)) {
+            if (segment < base) continue;
+            Journal.replay(Journal.segmentPath(directory, segment), model);
+            last = segment;
+        }
+
+        return new Database(directory, model, Journal.open(directory, last + 1));
+    }
+
+    /**
+     * @return Model, whose changes are logged to the journal
+     */
+    public UMCarroJa getModel() {
+        return this.model;
+    }
+
+    /**
+     * Replaces the model (after an import, for example) and waits until it is written as a checkpoint,
+     * since the journal before it no longer applies
+     */
+    public synchronized void replace(UMCarroJa model) throws IOException {
+        this.model.setJournal(null);
+        model.setJournal(this.journal);
+        this.model = model;
+
+        try {
+            this.checkpoint().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every change made so far is on disk
+     *
+     * @throws IOException if the journal can't be written, or a background checkpoint failed since
+     *                     the last call
+     */
+    public void sync() throws IOException {
+        this.journal.sync();
+        this.throwCheckpointFailure();
+    }
+
+    /**
+     * Requests a checkpoint of the model; once it is written, the files it makes redundant are deleted.
+     * The caller (and the model) is only blocked while the snapshot is taken and the journal switches segment.
+     *
+     * @return Completed when the checkpoint is on disk
+     * @throws IOException if the journal can't switch segment
+     */
+    public synchronized CompletableFuture<SaveService.Result> checkpoint() throws IOException {
+        long[] segment = new long[1];
+        UMCarroJa snapshot;
+
+        try {
+            snapshot = this.model.snapshot(() -> {
+                try {
+                    segment[0] = this.journal.rotate();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return this.saves.write(snapshot, Database.checkpointPath(this.directory, segment[0]))
+                .thenApply(result -> {
+                    this.deleteBefore(segment[0]);
+                    return result;
+                });
+    }
+
+    /**
+     * Stops the background checkpoints, waits for the ones being written and closes the journal,
+     * writing the pending changes
+     *
+     * @throws IOException if the journal can't be written, or a background checkpoint failed and was
+     *                     not reported yet
+     */
+    @Override
+    public void close() throws IOException {
+        this.checkpointer.shutdown();
+        try {
+            this.checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.saves.close();
+        this.journal.close();
+        this.throwCheckpointFailure();
+    }
+
+    private void checkpointIfNeeded() {
+        if (this.journal.size() >= CHECKPOINT_BYTES) this.checkpointInBackground();
+    }
+
+    /**
+     * Requests a checkpoint, keeping its failure to be reported by sync() or close()
+     */
+    void checkpointInBackground() {
+        try {
+            this.checkpoint().whenComplete((result, e) -> {
+                if (e != null) this.checkpointFailed(e);
+            });
+        } catch (IOException | RuntimeException e) {
+            this.checkpointFailed(e);
+        }
+    }
+
+    private void checkpointFailed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof UncheckedIOException) cause = cause.getCause();
+
+        this.checkpointFailure.compareAndSet(null, cause instanceof IOException
+                ? (IOException) cause : new IOException(cause.getMessage(), cause));
+    }
+
+    private void throwCheckpointFailure() throws IOException {
+        IOException failure = this.checkpointFailure.getAndSet(null);
+        if (failure != null) throw new IOException("Checkpoint failed: " + failure.getMessage(), failure);
+    }
+
+    /**
+     * Deletes the checkpoints and segments older than a checkpoint
+     */
+    private void deleteBefore(long segment) {
+        try {
+            for (long n : Database.numbers(this.directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+                if (n < segment) Files.deleteIfExists(Database.checkpointPath(this.directory, n));
+            }
+            for (long n : Database.numbers(this.directory, Journal.PREFIX, Journal.SUFFIX)) {
+                if (n < segment) Files.deleteIfExists(Journal.segmentPath(this.directory, n));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path checkpointPath(Path directory, long segment) {
+        return directory.resolve(CHECKPOINT_PREFIX + segment + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * @return Numbers of the files of a kind in the directory, in increasing order
+     */
+    private static List<Long> numbers(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(f -> Snapshots.fileNumber(f, prefix, suffix))
+                    .filter(n -> n >= 0)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
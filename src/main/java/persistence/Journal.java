@@ -0,0 +1,584 @@
+package persistence;
+
+import model.*;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes made to a model (write-ahead journal), split in numbered segment files.
+ * <p>
+ * Each record is its length, the CRC-32 of its payload and the payload: a type byte followed by the
+ * arguments of the change. Records are appended to a memory buffer; a background thread writes and forces
+ * the buffer to disk once per batch (every {@link #FLUSH_INTERVAL_MILLIS} ms, or sooner when the buffer
+ * fills or someone waits on {@link #sync()}), so one fsync covers every change of the batch and a crash
+ * loses at most the last batch.
+ */
+public class Journal implements Closeable {
+    static final String PREFIX = "journal-";
+    static final String SUFFIX = ".log";
+    private static final long FLUSH_INTERVAL_MILLIS = 20;
+    private static final int FLUSH_BYTES = 1 << 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int ADD_OWNER = 1;
+    private static final int ADD_CLIENT = 2;
+    private static final int ADD_TRANSPORT = 3;
+    private static final int CLIENT_LOCATION = 4;
+    private static final int CLIENT_RATING = 5;
+    private static final int CLIENT_RENT = 6;
+    private static final int CLIENT_NOTIFICATION = 7;
+    private static final int OWNER_RATING = 8;
+    private static final int OWNER_RENT = 9;
+    private static final int OWNER_NOTIFICATION = 10;
+    private static final int TRANSPORT_RATING = 11;
+    private static final int TRANSPORT_RENT = 12;
+    private static final int TRANSPORT_MOVE = 13;
+    private static final int TRANSPORT_PRICE = 14;
+    private static final int TRANSPORT_REFILL = 15;
+
+    private final Path directory;
+    /* Guards the buffer of pending records and the counters */
+    private final ReentrantLock lock;
+    private final Condition flushNeeded;
+    private final Condition flushed;
+    /* Guards the channel; held while a batch is written and forced */
+    private final ReentrantLock ioLock;
+    private final ByteArrayOutputStream pending;
+    private final Thread flusher;
+    private FileChannel channel;
+    private long segment;
+    private long segmentSize;
+    /* Number of records appended, and how many of those are on disk */
+    private long appended;
+    private long durable;
+    private int waiting;
+    private boolean closed;
+    private IOException failure;
+
+    private Journal(Path directory, long segment) throws IOException {
+        this.directory = directory;
+        this.lock = new ReentrantLock();
+        this.flushNeeded = this.lock.newCondition();
+        this.flushed = this.lock.newCondition();
+        this.ioLock = new ReentrantLock();
+        this.pending = new ByteArrayOutputStream(FLUSH_BYTES);
+        this.channel = Journal.create(directory, segment);
+        this.segment = segment;
+        this.segmentSize = 0;
+        this.appended = 0;
+        this.durable = 0;
+        this.waiting = 0;
+        this.closed = false;
+        this.failure = null;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Starts a journal writing to a new segment.
+     *
+     * @param directory Directory of the segments
+     * @param segment   Number of the segment, which must not exist yet
+     */
+    public static Journal open(Path directory, long segment) throws IOException {
+        Journal journal = new Journal(directory, segment);
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * @return Path of a segment
+     */
+    public static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(PREFIX + segment + SUFFIX);
+    }
+
+    /**
+     * @return Number of the segment being written
+     */
+    public long getSegment() {
+        this.lock.lock();
+        try {
+            return this.segment;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return Bytes appended to the current segment, written or not
+     */
+    public long size() {
+        this.lock.lock();
+        try {
+            return this.segmentSize;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void addOwner(Owner owner) {
+        this.append(ADD_OWNER, out -> Journal.writeEntity(out, owner));
+    }
+
+    public void addClient(Client client) {
+        this.append(ADD_CLIENT, out -> Journal.writeEntity(out, client));
+    }
+
+    public void addTransport(Transport transport) {
+        this.append(ADD_TRANSPORT, out -> Journal.writeEntity(out, transport));
+    }
+
+    public void updateLocationClient(String email, Point2D.Double location) {
+        this.append(CLIENT_LOCATION, out -> {
+            out.writeUTF(email);
+            Journal.writePoint(out, location);
+        });
+    }
+
+    public void addRatingToClient(double rating, String email) {
+        this.append(CLIENT_RATING, out -> {
+            out.writeUTF(email);
+            out.writeDouble(rating);
+        });
+    }
+
+    public void addAluguerToClient(Aluguer aluguer, String email) {
+        this.append(CLIENT_RENT, out -> {
+            out.writeUTF(email);
+            Journal.writeAluguer(out, aluguer);
+        });
+    }
+
+    public void addNotificationToClient(Notification notification, String email) {
+        this.append(CLIENT_NOTIFICATION, out -> {
+            out.writeUTF(email);
+            Journal.writeEntity(out, notification);
+        });
+    }
+
+    public void addRatingToOwner(double rating, String email) {
+        this.append(OWNER_RATING, out -> {
+            out.writeUTF(email);
+            out.writeDouble(rating);
+        });
+    }
+
+    public void addAluguerToOwner(Aluguer aluguer, String email) {
+        this.append(OWNER_RENT, out -> {
+            out.writeUTF(email);
+            Journal.writeAluguer(out, aluguer);
+        });
+    }
+
+    public void addNotificationToOwner(Notification notification, String email) {
+        this.append(OWNER_NOTIFICATION, out -> {
+            out.writeUTF(email);
+            Journal.writeEntity(out, notification);
+        });
+    }
+
+    public void addRatingToTransport(double rating, String id) {
+        this.append(TRANSPORT_RATING, out -> {
+            out.writeUTF(id);
+            out.writeDouble(rating);
+        });
+    }
+
+    public void addAluguerToTransport(Aluguer aluguer, String id) {
+        this.append(TRANSPORT_RENT, out -> {
+            out.writeUTF(id);
+            Journal.writeAluguer(out, aluguer);
+        });
+    }
+
+    public void updateLocationTransport(String id, Point2D.Double origin, Point2D.Double destination,
+                                        LocalDateTime departure) {
+        this.append(TRANSPORT_MOVE, out -> {
+            out.writeUTF(id);
+            Journal.writePoint(out, origin);
+            Journal.writePoint(out, destination);
+            Journal.writeDateTime(out, departure);
+        });
+    }
+
+    public void changeTransportPriceKm(String id, double priceKm) {
+        this.append(TRANSPORT_PRICE, out -> {
+            out.writeUTF(id);
+            out.writeDouble(priceKm);
+        });
+    }
+
+    public void refillTransport(String id) {
+        this.append(TRANSPORT_REFILL, out -> out.writeUTF(id));
+    }
+
+    /**
+     * Waits until every record appended so far is on disk.
+     *
+     * @throws IOException if the journal could not be written
+     */
+    public void sync() throws IOException {
+        this.lock.lock();
+        try {
+            long target = this.appended;
+            this.waiting++;
+            this.flushNeeded.signal();
+            try {
+                while (this.durable < target && this.failure == null) this.flushed.awaitUninterruptibly();
+            } finally {
+                this.waiting--;
+            }
+            if (this.failure != null) throw new IOException("Journal write failed", this.failure);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending records to the current segment and starts a new one. Records appended from now on
+     * go to the new segment.
+     *
+     * @return Number of the new segment
+     */
+    public long rotate() throws IOException {
+        this.ioLock.lock();
+        try {
+            this.flush();
+            this.channel.close();
+            long next = this.getSegment() + 1;
+            this.channel = Journal.create(this.directory, next);
+
+            this.lock.lock();
+            try {
+                this.segment = next;
+                this.segmentSize = this.pending.size();
+            } finally {
+                this.lock.unlock();
+            }
+            return next;
+        } finally {
+            this.ioLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending records and closes the current segment
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) return;
+            this.closed = true;
+            this.flushNeeded.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            this.flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.ioLock.lock();
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+            this.ioLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the records of a segment to a model, in order. Reading stops at the first incomplete or
+     * corrupted record, which can only be the tail of a batch interrupted by a crash.
+     *
+     * @param file  Segment
+     * @param model Model, which must not have a journal attached
+     * @return Number of records applied
+     */
+    public static long replay(Path file, UMCarroJa model) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            long count = 0;
+
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) break;
+
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) break;
+
+                Journal.apply(model, new DataInputStream(new ByteArrayInputStream(payload)));
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+    private void append(int type, RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        this.lock.lock();
+        try {
+            if (this.failure != null) throw new UncheckedIOException(new IOException("Journal write failed", this.failure));
+            if (this.closed) throw new IllegalStateException("Journal is closed");
+
+            Journal.writeInt(this.pending, payload.length);
+            Journal.writeInt(this.pending, (int) crc.getValue());
+            this.pending.write(payload, 0, payload.length);
+            this.segmentSize += RECORD_HEADER_SIZE + payload.length;
+            this.appended++;
+            if (this.pending.size() >= FLUSH_BYTES) this.flushNeeded.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        try {
+            while (true) {
+                this.lock.lock();
+                try {
+                    while (!this.closed && this.pending.size() == 0) this.flushNeeded.await();
+                    if (this.closed) return;
+                    /* Gives other changes the chance to join the batch */
+                    if (this.pending.size() < FLUSH_BYTES && this.waiting == 0) {
+                        this.flushNeeded.await(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+
+                this.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            this.lock.lock();
+            try {
+                this.failure = e;
+                this.flushed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes and forces the pending records
+     */
+    private void flush() throws IOException {
+        this.ioLock.lock();
+        try {
+            byte[] batch;
+            long sequence;
+
+            this.lock.lock();
+            try {
+                if (this.failure != null) throw new IOException("Journal write failed", this.failure);
+                batch = this.pending.toByteArray();
+                this.pending.reset();
+                sequence = this.appended;
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (batch.length > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) this.channel.write(buffer);
+                this.channel.force(false);
+            }
+
+            this.lock.lock();
+            try {
+                this.durable = Math.max(this.durable, sequence);
+                this.flushed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        } finally {
+            this.ioLock.unlock();
+        }
+    }
+
+    private static FileChannel create(Path directory, long segment) throws IOException {
+        return FileChannel.open(Journal.segmentPath(directory, segment), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+    }
+
+    private static void apply(UMCarroJa model, DataInputStream in) throws IOException {
+        int type = in.readByte();
+
+        switch (type) {
+            case ADD_OWNER:
+                model.addOwner((Owner) Journal.readEntity(in));
+                break;
+            case ADD_CLIENT:
+                model.addClient((Client) Journal.readEntity(in));
+                break;
+            case ADD_TRANSPORT:
+                model.addTransport((Transport) Journal.readEntity(in));
+                break;
+            case CLIENT_LOCATION:
+                model.updateLocationClient(in.readUTF(), Journal.readPoint(in));
+                break;
+            case CLIENT_RATING: {
+                String email = in.readUTF();
+                model.addRatingToClient(in.readDouble(), email);
+                break;
+            }
+            case CLIENT_RENT: {
+                String email = in.readUTF();
+                model.addAluguerToClient(Journal.readAluguer(in), email);
+                break;
+            }
+            case CLIENT_NOTIFICATION: {
+                String email = in.readUTF();
+                model.addNotificationToClient((Notification) Journal.readEntity(in), email);
+                break;
+            }
+            case OWNER_RATING: {
+                String email = in.readUTF();
+                model.addRatingToOwner(in.readDouble(), email);
+                break;
+            }
+            case OWNER_RENT: {
+                String email = in.readUTF();
+                model.addAluguerToOwner(Journal.readAluguer(in), email);
+                break;
+            }
+            case OWNER_NOTIFICATION: {
+                String email = in.readUTF();
+                model.addNotificationToOwner((Notification) Journal.readEntity(in), email);
+                break;
+            }
+            case TRANSPORT_RATING: {
+                String id = in.readUTF();
+                model.addRatingToTransport(in.readDouble(), id);
+                break;
+            }
+            case TRANSPORT_RENT: {
+                String id = in.readUTF();
+                model.addAluguerToTransport(Journal.readAluguer(in), id);
+                break;
+            }
+            case TRANSPORT_MOVE:
+                model.updateLocationTransport(in.readUTF(), Journal.readPoint(in), Journal.readPoint(in),
+                        Journal.readDateTime(in));
+                break;
+            case TRANSPORT_PRICE: {
+                String id = in.readUTF();
+                model.changeTransportPriceKm(id, in.readDouble());
+                break;
+            }
+            case TRANSPORT_REFILL:
+                model.refillTransport(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    private static void writeAluguer(DataOutputStream out, Aluguer aluguer) throws IOException {
+        out.writeInt(aluguer.getNifCliente());
+        Journal.writeString(out, aluguer.getEmail());
+        Journal.writeDateTime(out, aluguer.getDate());
+        out.writeDouble(aluguer.getPrice());
+        Journal.writePoint(out, aluguer.getOrigin());
+        Journal.writePoint(out, aluguer.getDestination());
+        Journal.writeString(out, aluguer.getCombustivel());
+        Journal.writeString(out, aluguer.getPreferencia());
+    }
+
+    private static Aluguer readAluguer(DataInputStream in) throws IOException {
+        return new Aluguer(in.readInt(), Journal.readString(in), Journal.readDateTime(in), in.readDouble(),
+                Journal.readPoint(in), Journal.readPoint(in), Journal.readString(in), Journal.readString(in));
+    }
+
+    /**
+     * Entities and notifications are written as a snapshot of their own (see Snapshots.encode),
+     * preceded by its length
+     */
+    private static void writeEntity(DataOutputStream out, Object entity) throws IOException {
+        byte[] bytes = Snapshots.encode(entity);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Object readEntity(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return Snapshots.decode(bytes);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writePoint(DataOutputStream out, Point2D.Double point) throws IOException {
+        out.writeDouble(point.getX());
+        out.writeDouble(point.getY());
+    }
+
+    private static Point2D.Double readPoint(DataInputStream in) throws IOException {
+        return new Point2D.Double(in.readDouble(), in.readDouble());
+    }
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeBoolean(time != null);
+        if (time != null) {
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+    }
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
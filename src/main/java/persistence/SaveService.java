@@ -0,0 +1,139 @@
+package persistence;
+
+import model.UMCarroJa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves models on a dedicated thread, so whoever asks for a save (and everyone changing the model) keeps
+ * running while the file is written.
+ * <p>
+ * The snapshot is taken on the calling thread with {@link UMCarroJa#snapshot()}, in constant time, so the
+ * saved state is the one of the moment of the request. Saves are written one at a time, in order, and each
+ * replaces its file atomically (see {@link Snapshots#save}).
+ */
+public class SaveService implements Closeable {
+    private final ExecutorService executor;
+
+    public SaveService() {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "save-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Requests a save of the current state of a model.
+     *
+     * @param model Model
+     * @param file  Destination file
+     * @return Completed with the result when the file is in place, or exceptionally if the save failed
+     */
+    public CompletableFuture<Result> save(UMCarroJa model, Path file) {
+        return this.write(model.snapshot(), file);
+    }
+
+    /**
+     * Requests a save of a snapshot already taken, which must not be changed afterwards.
+     *
+     * @param snapshot Snapshot of a model
+     * @param file     Destination file
+     * @return Completed with the result when the file is in place, or exceptionally if the save failed
+     */
+    public CompletableFuture<Result> write(UMCarroJa snapshot, Path file) {
+        return this.submit(() -> {
+            Snapshots.save(snapshot, file);
+            return file;
+        });
+    }
+
+    /**
+     * Requests a save of the current state of a model to a store, which writes a delta when it can.
+     *
+     * @param store Store
+     * @param model Model
+     * @return Completed with the result (naming the full snapshot or the delta written) when the file is in
+     * place, or exceptionally if the save failed
+     */
+    public CompletableFuture<Result> save(SnapshotStore store, UMCarroJa model) {
+        UMCarroJa snapshot = model.snapshot();
+        return this.submit(() -> store.save(model, snapshot));
+    }
+
+    private CompletableFuture<Result> submit(Save save) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                Path file = save.run();
+                return new Result(file, Files.size(file), System.nanoTime() - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Waits for the requested saves to finish
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Save {
+        Path run() throws IOException;
+    }
+
+    /**
+     * Outcome of a finished save
+     */
+    public static class Result {
+        private final Path file;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        private Result(Path file, long bytes, long elapsedNanos) {
+            this.file = file;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public Path getFile() {
+            return this.file;
+        }
+
+        /**
+         * @return Size of the saved file
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        /**
+         * @return Time spent writing the file, in seconds
+         */
+        public double getSeconds() {
+            return this.elapsedNanos / 1e9;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Saved %s (%d bytes) in %.3f s", this.file, this.bytes, this.getSeconds());
+        }
+    }
+}
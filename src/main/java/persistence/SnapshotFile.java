@@ -0,0 +1,160 @@
+package persistence;
+
+import model.Client;
+import model.Owner;
+import model.Transport;
+import model.UMCarroJa;
+import util.Compression;
+import util.CompressionStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Snapshot file mapped in memory, whose records can be decoded one by one (looked up by key through the
+ * index) or all at once into a model. Records of deltas can only be looked up when they keep no rent
+ * of the previous version; deltas are otherwise read with {@link #applyTo}.
+ * <p>
+ * Decoded entities only hold their scalar fields; rent histories stay in the mapping and are decoded when
+ * first used, so the file must not be truncated while they are alive ({@link Snapshots#save} replaces
+ * files with a rename for that reason).
+ */
+public class SnapshotFile {
+    private final SnapshotInput in;
+
+    private SnapshotFile(SnapshotInput in) {
+        this.in = in;
+    }
+
+    /**
+     * Maps a snapshot file. The mapping stays valid after the file is closed. A compressed snapshot is
+     * decompressed into memory instead.
+     *
+     * @param file Snapshot file
+     * @throws IOException if the file can't be read or is not a snapshot
+     */
+    public static SnapshotFile open(Path file) throws IOException {
+        if (Compression.isCompressed(file)) {
+            try (InputStream in = Compression.newInputStream(file, new CompressionStats())) {
+                return new SnapshotFile(new SnapshotInput(ByteBuffer.wrap(in.readAllBytes())));
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new SnapshotFile(new SnapshotInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    public int getVersion() {
+        return this.in.getVersion();
+    }
+
+    /**
+     * @return Id of the chain of the file
+     */
+    public long getChain() {
+        return this.in.getChain();
+    }
+
+    /**
+     * @return Position of the file in its chain: 0 for a full snapshot, 1 or more for a delta
+     */
+    public int getSequence() {
+        return this.in.getSequence();
+    }
+
+    /**
+     * @return Number of records of a section (see {@link SnapshotFormat})
+     */
+    public int getCount(int section) {
+        return this.in.getCount(section);
+    }
+
+    /**
+     * @param email Email of the owner
+     * @return Owner, or null if there is none with that email
+     */
+    public Owner findOwner(String email) {
+        int offset = this.in.findRecord(SnapshotFormat.OWNERS, email);
+        return offset < 0 ? null : Snapshots.readOwner(this.in.at(offset), null);
+    }
+
+    /**
+     * @param email Email of the client
+     * @return Client, or null if there is none with that email
+     */
+    public Client findClient(String email) {
+        int offset = this.in.findRecord(SnapshotFormat.CLIENTS, email);
+        return offset < 0 ? null : Snapshots.readClient(this.in.at(offset), null);
+    }
+
+    /**
+     * @param id Plate of the transport
+     * @return Transport, or null if there is none with that plate
+     */
+    public Transport findTransport(String id) {
+        int offset = this.in.findRecord(SnapshotFormat.TRANSPORTS, id);
+        return offset < 0 ? null : Snapshots.readTransport(this.in.at(offset), null);
+    }
+
+    /**
+     * Decodes every record into a new model. With an index, the records of each section are decoded
+     * in parallel; files without one are read sequentially.
+     *
+     * @return Model
+     * @throws IOException if a record is corrupted
+     */
+    public UMCarroJa toModel() throws IOException {
+        if (this.in.isDelta()) throw new IOException("Delta " + this.in.getSequence() + " needs the previous files of its chain");
+
+        UMCarroJa model = new UMCarroJa();
+        this.applyTo(model);
+        return model;
+    }
+
+    /**
+     * Adds every record to a model, replacing the entities with the same key. A delta must be applied to
+     * the model read from the previous files of its chain.
+     *
+     * @param model Model
+     * @throws IOException if a record is corrupted
+     */
+    public void applyTo(UMCarroJa model) throws IOException {
+        try {
+            if (this.in.hasIndex()) {
+                for (Owner owner : this.decodeAll(SnapshotFormat.OWNERS, model, Snapshots::readOwner, Owner[]::new))
+                    model.addOwner(owner);
+                for (Client client : this.decodeAll(SnapshotFormat.CLIENTS, model, Snapshots::readClient, Client[]::new))
+                    model.addClient(client);
+                for (Transport transport : this.decodeAll(SnapshotFormat.TRANSPORTS, model, Snapshots::readTransport, Transport[]::new))
+                    model.addTransport(transport);
+            } else {
+                SnapshotInput in = this.in.at(this.in.position());
+                for (int i = in.getCount(SnapshotFormat.OWNERS); i > 0; i--) model.addOwner(Snapshots.readOwner(in, model));
+                for (int i = in.getCount(SnapshotFormat.CLIENTS); i > 0; i--) model.addClient(Snapshots.readClient(in, model));
+                for (int i = in.getCount(SnapshotFormat.TRANSPORTS); i > 0; i--) model.addTransport(Snapshots.readTransport(in, model));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Decodes the records of a section in parallel; the model is only read
+     */
+    private <T> T[] decodeAll(int section, UMCarroJa model, BiFunction<SnapshotInput, UMCarroJa, T> reader,
+                              IntFunction<T[]> array) {
+        return IntStream.range(0, this.in.getCount(section))
+                .parallel()
+                .mapToObj(i -> reader.apply(this.in.at(this.in.getRecordOffset(section, i)), model))
+                .toArray(array);
+    }
+}
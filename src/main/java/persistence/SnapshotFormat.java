@@ -0,0 +1,41 @@
+package persistence;
+
+/**
+ * Constants of the binary snapshot format.
+ * <p>
+ * Header: magic, version, offset of the string table, offset of the index (since version 2) and the
+ * number of records of each section. The body holds the owners, then the clients, then the transports.
+ * <p>
+ * Version 2 adds the index, with the offset of every record sorted by key, and stores the byte length
+ * of each rent history so that it can be skipped and decoded only when it is used.
+ * <p>
+ * Version 3 adds, after the index offset, the chain and the sequence number of the file: a full snapshot
+ * (sequence 0) starts a chain with a random id, and the deltas written on top of it (sequence 1, 2, ...)
+ * carry that id. A delta only holds the entities changed since the previous file of the chain, and each
+ * of their rent histories starts with how many rents of the previous version are kept.
+ */
+public final class SnapshotFormat {
+    /* "UMCJ" */
+    public static final int MAGIC = 0x554D434A;
+    public static final int VERSION = 3;
+
+    public static final int OWNERS = 0;
+    public static final int CLIENTS = 1;
+    public static final int TRANSPORTS = 2;
+    public static final int SECTIONS = 3;
+
+    public static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 * SECTIONS;
+    public static final int HEADER_SIZE_V2 = 4 + 4 + 8 + 8 + 4 * SECTIONS;
+    public static final int HEADER_SIZE_V1 = 4 + 4 + 8 + 4 * SECTIONS;
+    /* Index entry: string table index of the key and offset of the record */
+    public static final int INDEX_ENTRY_SIZE = 4 + 8;
+
+    /* Record tags */
+    public static final int CAR = 1;
+    public static final int HYBRID = 2;
+    public static final int RENT_NOTIFICATION = 1;
+    public static final int RATING_NOTIFICATION = 2;
+
+    private SnapshotFormat() {
+    }
+}
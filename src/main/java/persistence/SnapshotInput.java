@@ -0,0 +1,248 @@
+package persistence;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Reader of the binary snapshot format written by {@link SnapshotOutput}, over a buffer holding the
+ * whole file (usually memory-mapped).
+ */
+public class SnapshotInput {
+    private final ByteBuffer buffer;
+    private final String[] table;
+    private final int[] counts;
+    private final int version;
+    private final long chain;
+    private final int sequence;
+    /* Offset of the index of each section, or -1 for files without index */
+    private final long[] index;
+
+    /**
+     * Validates the header and loads the string table. The buffer is left at the start of the body.
+     *
+     * @param buffer Contents of the file
+     * @throws IOException if the buffer does not hold a snapshot of a supported version
+     */
+    public SnapshotInput(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        this.counts = new int[SnapshotFormat.SECTIONS];
+
+        if (buffer.remaining() < SnapshotFormat.HEADER_SIZE || buffer.getInt(0) != SnapshotFormat.MAGIC) {
+            throw new IOException("Not a snapshot file");
+        }
+        this.version = buffer.getInt(4);
+        if (this.version < 1 || this.version > SnapshotFormat.VERSION) {
+            throw new IOException("Unsupported snapshot version " + this.version);
+        }
+
+        long tableOffset = buffer.getLong(8);
+        this.chain = this.version >= 3 ? buffer.getLong(24) : 0;
+        this.sequence = this.version >= 3 ? buffer.getInt(32) : 0;
+        this.index = new long[SnapshotFormat.SECTIONS];
+        if (this.version == 1) {
+            for (int i = 0; i < this.counts.length; i++) this.counts[i] = buffer.getInt(16 + 4 * i);
+            Arrays.fill(this.index, -1);
+        } else {
+            long offset = buffer.getLong(16);
+            int counts = this.version == 2 ? 24 : 36;
+            for (int i = 0; i < this.counts.length; i++) {
+                this.counts[i] = buffer.getInt(counts + 4 * i);
+                this.index[i] = offset;
+                offset += (long) this.counts[i] * SnapshotFormat.INDEX_ENTRY_SIZE;
+            }
+        }
+
+        this.buffer.position((int) tableOffset);
+        this.table = new String[this.readVarInt() + 1];
+        for (int i = 1; i < this.table.length; i++) {
+            byte[] bytes = new byte[this.readVarInt()];
+            this.buffer.get(bytes);
+            this.table[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        this.buffer.position(this.version == 1 ? SnapshotFormat.HEADER_SIZE_V1
+                : this.version == 2 ? SnapshotFormat.HEADER_SIZE_V2 : SnapshotFormat.HEADER_SIZE);
+    }
+
+    private SnapshotInput(SnapshotInput other, int position) {
+        this.buffer = other.buffer.duplicate();
+        this.buffer.position(position);
+        this.table = other.table;
+        this.counts = other.counts;
+        this.version = other.version;
+        this.chain = other.chain;
+        this.sequence = other.sequence;
+        this.index = other.index;
+    }
+
+    /**
+     * Creates an independent reader over the same file, starting at a given offset.
+     * Readers can be used by different threads at the same time.
+     */
+    public SnapshotInput at(int position) {
+        return new SnapshotInput(this, position);
+    }
+
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return Id of the chain of the file (0 before version 3)
+     */
+    public long getChain() {
+        return this.chain;
+    }
+
+    /**
+     * @return Position of the file in its chain: 0 for a full snapshot, 1 or more for a delta
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
+    public boolean isDelta() {
+        return this.sequence > 0;
+    }
+
+    /**
+     * @return true if the file has an index of its records
+     */
+    public boolean hasIndex() {
+        return this.index[0] >= 0;
+    }
+
+    /**
+     * @param section Section
+     * @param i       Position in the index, from 0 to getCount(section) - 1
+     * @return Offset of the i-th record of a section, by key order
+     */
+    public int getRecordOffset(int section, int i) {
+        return (int) this.buffer.getLong((int) this.index[section] + i * SnapshotFormat.INDEX_ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Looks a record up by its key, with a binary search on the index
+     *
+     * @param section Section
+     * @param key     Email or plate
+     * @return Offset of the record, or -1 if there is none
+     */
+    public int findRecord(int section, String key) {
+        if (!this.hasIndex()) throw new IllegalStateException("Snapshot version " + this.version + " has no index");
+
+        int low = 0;
+        int high = this.counts[section] - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            String current = this.table[this.buffer.getInt((int) this.index[section] + middle * SnapshotFormat.INDEX_ENTRY_SIZE)];
+            int cmp = current.compareTo(key);
+
+            if (cmp < 0) low = middle + 1;
+            else if (cmp > 0) high = middle - 1;
+            else return this.getRecordOffset(section, middle);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Checks if a buffer starts with the snapshot magic number
+     */
+    public static boolean isSnapshot(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == SnapshotFormat.MAGIC;
+    }
+
+    /**
+     * @return Number of records of a section
+     */
+    public int getCount(int section) {
+        return this.counts[section];
+    }
+
+    public int position() {
+        return this.buffer.position();
+    }
+
+    public void position(int position) {
+        this.buffer.position(position);
+    }
+
+    public int readByte() {
+        return this.buffer.get();
+    }
+
+    public boolean readBoolean() {
+        return this.buffer.get() != 0;
+    }
+
+    public double readDouble() {
+        return this.buffer.getDouble();
+    }
+
+    /**
+     * Reads n consecutive doubles in bulk
+     */
+    public double[] readDoubles(int n) {
+        double[] values = new double[n];
+        this.buffer.asDoubleBuffer().get(values);
+        this.buffer.position(this.buffer.position() + n * 8);
+        return values;
+    }
+
+    public int readInt() {
+        return this.buffer.getInt();
+    }
+
+    public long readLong() {
+        return this.buffer.getLong();
+    }
+
+    public int readVarInt() {
+        return (int) this.readVarLong();
+    }
+
+    public long readSignedVarLong() {
+        long value = this.readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() {
+        return this.table[this.readVarInt()];
+    }
+
+    public Point2D.Double readPoint() {
+        return new Point2D.Double(this.readDouble(), this.readDouble());
+    }
+
+    public LocalDate readDate() {
+        return this.readBoolean() ? LocalDate.ofEpochDay(this.readSignedVarLong()) : null;
+    }
+
+    public LocalDateTime readDateTime() {
+        if (!this.readBoolean()) return null;
+        long seconds = this.readSignedVarLong();
+        return LocalDateTime.ofEpochSecond(seconds, this.readVarInt(), ZoneOffset.UTC);
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = this.buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
@@ -0,0 +1,307 @@
+package persistence;
+
+import java.awt.geom.Point2D;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffered writer of the binary snapshot format.
+ * <p>
+ * Layout: a fixed size header (see {@link SnapshotFormat}), the body written through this class and,
+ * at the end, the index of the records and the string table. Strings in the body are written as
+ * indexes into that table, so each email, plate, brand or place name is stored once; the header is
+ * patched on close with the positions of the index and of the table.
+ * <p>
+ * Without a channel the whole file is kept in memory, in a buffer that grows as needed, and is read
+ * with {@link #toByteArray()} once closed.
+ */
+public class SnapshotOutput implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /* Null when writing to memory */
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private final Map<String, Integer> strings;
+    private final List<String> table;
+    private final List<List<IndexEntry>> index;
+    private final long chain;
+    private final int sequence;
+    private long position;
+
+    /**
+     * @param channel  Channel of an empty file, open for writing
+     * @param chain    Id of the chain of the file
+     * @param sequence Position of the file in the chain: 0 for a full snapshot, 1 or more for a delta
+     */
+    public SnapshotOutput(FileChannel channel, long chain, int sequence) throws IOException {
+        this.channel = channel;
+        this.chain = chain;
+        this.sequence = sequence;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.strings = new HashMap<>();
+        this.table = new ArrayList<>();
+        this.index = new ArrayList<>();
+        for (int i = 0; i < SnapshotFormat.SECTIONS; i++) this.index.add(new ArrayList<>());
+
+        /* Reserved for the header, written on close */
+        this.channel.position(SnapshotFormat.HEADER_SIZE);
+        this.position = SnapshotFormat.HEADER_SIZE;
+    }
+
+    /**
+     * Writes a full snapshot to memory
+     */
+    public SnapshotOutput() {
+        this.channel = null;
+        this.chain = 0;
+        this.sequence = 0;
+        this.buffer = ByteBuffer.allocate(256);
+        this.strings = new HashMap<>();
+        this.table = new ArrayList<>();
+        this.index = new ArrayList<>();
+        for (int i = 0; i < SnapshotFormat.SECTIONS; i++) this.index.add(new ArrayList<>());
+
+        /* The buffer holds the whole file, header included */
+        this.buffer.position(SnapshotFormat.HEADER_SIZE);
+        this.position = 0;
+    }
+
+    public boolean isDelta() {
+        return this.sequence > 0;
+    }
+
+    /**
+     * @return Offset, in the file, of the next byte to be written
+     */
+    public long position() {
+        return this.position + this.buffer.position();
+    }
+
+    /**
+     * Marks the start of a record, adding it to the index of its section
+     *
+     * @param section Section of the record
+     * @param key     Key of the record (email or plate)
+     */
+    public void beginRecord(int section, String key) {
+        this.index.get(section).add(new IndexEntry(this.intern(key), key, this.position()));
+    }
+
+    /**
+     * Writes a placeholder for a number that is only known later
+     *
+     * @return Offset of the placeholder, to be given to patchInt
+     */
+    public long reserveInt() throws IOException {
+        long offset = this.position();
+        this.writeInt(0);
+        return offset;
+    }
+
+    public void patchInt(long offset, int value) throws IOException {
+        if (offset >= this.position) {
+            this.buffer.putInt((int) (offset - this.position), value);
+        } else {
+            ByteBuffer bytes = ByteBuffer.allocate(4).putInt(0, value);
+            while (bytes.hasRemaining()) this.channel.write(bytes, offset + bytes.position());
+        }
+    }
+
+    public void writeByte(int value) throws IOException {
+        this.ensure(1);
+        this.buffer.put((byte) value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        this.writeByte(value ? 1 : 0);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        this.ensure(8);
+        this.buffer.putDouble(value);
+    }
+
+    /**
+     * Writes the first length values of an array, as consecutive doubles, in bulk
+     */
+    public void writeDoubles(double[] values, int length) throws IOException {
+        for (int i = 0; i < length; ) {
+            if (this.buffer.remaining() < 8) this.flush();
+            int chunk = Math.min(this.buffer.remaining() / 8, length - i);
+            this.buffer.asDoubleBuffer().put(values, i, chunk);
+            this.buffer.position(this.buffer.position() + chunk * 8);
+            i += chunk;
+        }
+    }
+
+    public void writeInt(int value) throws IOException {
+        this.ensure(4);
+        this.buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        this.ensure(8);
+        this.buffer.putLong(value);
+    }
+
+    /**
+     * Writes a non-negative number in 1 to 5 bytes (7 bits per byte)
+     */
+    public void writeVarInt(int value) throws IOException {
+        this.writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes a number in 1 to 10 bytes, with small magnitudes (positive or negative) using fewer bytes
+     */
+    public void writeSignedVarLong(long value) throws IOException {
+        this.writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            this.writeVarInt(0);
+            return;
+        }
+
+        this.writeVarInt(this.intern(value));
+    }
+
+    public void writePoint(Point2D.Double point) throws IOException {
+        this.writeDouble(point.getX());
+        this.writeDouble(point.getY());
+    }
+
+    public void writeDate(LocalDate date) throws IOException {
+        this.writeBoolean(date != null);
+        if (date != null) this.writeSignedVarLong(date.toEpochDay());
+    }
+
+    public void writeDateTime(LocalDateTime time) throws IOException {
+        this.writeBoolean(time != null);
+        if (time != null) {
+            this.writeSignedVarLong(time.toEpochSecond(ZoneOffset.UTC));
+            this.writeVarInt(time.getNano());
+        }
+    }
+
+    /**
+     * Writes the index, the string table and the header, and forces the file to disk (if it has one)
+     */
+    @Override
+    public void close() throws IOException {
+        long indexOffset = this.position();
+        for (List<IndexEntry> entries : this.index) {
+            entries.sort(Comparator.comparing(e -> e.key));
+            for (IndexEntry entry : entries) {
+                this.writeInt(entry.string);
+                this.writeLong(entry.offset);
+            }
+        }
+
+        long tableOffset = this.position();
+
+        this.writeVarInt(this.table.size());
+        for (String string : this.table) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            this.writeVarInt(bytes.length);
+            for (int i = 0; i < bytes.length; i += BUFFER_SIZE) {
+                int length = Math.min(BUFFER_SIZE, bytes.length - i);
+                this.ensure(length);
+                this.buffer.put(bytes, i, length);
+            }
+        }
+        if (this.channel != null) this.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(SnapshotFormat.HEADER_SIZE);
+        header.putInt(SnapshotFormat.MAGIC);
+        header.putInt(SnapshotFormat.VERSION);
+        header.putLong(tableOffset);
+        header.putLong(indexOffset);
+        header.putLong(this.chain);
+        header.putInt(this.sequence);
+        for (List<IndexEntry> entries : this.index) header.putInt(entries.size());
+        header.flip();
+
+        if (this.channel == null) {
+            this.buffer.duplicate().position(0).put(header);
+            return;
+        }
+        while (header.hasRemaining()) this.channel.write(header, header.position());
+
+        this.channel.force(false);
+    }
+
+    /**
+     * @return Contents of a file written to memory, once closed
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer.array(), this.buffer.position());
+    }
+
+    /**
+     * @return Index of a string in the string table, adding it if needed (0 stands for null)
+     */
+    private int intern(String value) {
+        Integer index = this.strings.get(value);
+
+        if (index == null) {
+            this.table.add(value);
+            index = this.table.size();
+            this.strings.put(value, index);
+        }
+
+        return index;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        this.ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            this.buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.buffer.put((byte) value);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        while (this.buffer.remaining() < bytes) this.flush();
+    }
+
+    /**
+     * Writes the buffer to the file or, in memory, doubles it
+     */
+    private void flush() throws IOException {
+        this.buffer.flip();
+        if (this.channel == null) {
+            this.buffer = ByteBuffer.allocate(2 * this.buffer.capacity()).put(this.buffer);
+            return;
+        }
+
+        while (this.buffer.hasRemaining()) this.position += this.channel.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    private static class IndexEntry {
+        private final int string;
+        private final String key;
+        private final long offset;
+
+        private IndexEntry(int string, String key, long offset) {
+            this.string = string;
+            this.key = key;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package persistence;
+
+import model.UMCarroJa;
+import util.Codec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Saves a model as a full snapshot followed by deltas ('file.1', 'file.2', ...), each holding only the
+ * entities changed since the previous save and the rents added to them, so the cost of a save follows
+ * what changed rather than the size of the model.
+ * <p>
+ * Once the deltas add up to more than {@link #MERGE_RATIO} of the full snapshot, the next save merges them:
+ * it writes a new full snapshot, starting a new chain, and deletes them. Deltas left from an older chain
+ * are ignored on load, so a crash between both steps is harmless.
+ */
+public class SnapshotStore {
+    private static final double MERGE_RATIO = 0.5;
+
+    private final Path file;
+    private final Codec codec;
+    /* Model last saved or loaded, and a snapshot of the state the files hold */
+    private UMCarroJa source;
+    private UMCarroJa saved;
+    private long chain;
+    private int sequence;
+    private long baseBytes;
+    private long deltaBytes;
+
+    /**
+     * @param file Path of the full snapshot; deltas are written next to it
+     */
+    public SnapshotStore(Path file) {
+        this(file, Codec.NONE);
+    }
+
+    /**
+     * @param file  Path of the full snapshot; deltas are written next to it
+     * @param codec Codec of the files written (files are read whatever their codec)
+     */
+    public SnapshotStore(Path file, Codec codec) {
+        this.file = file;
+        this.codec = codec;
+        this.source = null;
+        this.saved = null;
+        this.chain = 0;
+        this.sequence = 0;
+        this.baseBytes = 0;
+        this.deltaBytes = 0;
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return Number of deltas on top of the full snapshot
+     */
+    public synchronized int getDeltas() {
+        return this.sequence;
+    }
+
+    /**
+     * Reads the model from the full snapshot and its deltas
+     *
+     * @return Model
+     * @throws IOException if the file can't be read or is not a snapshot (files saved with Java
+     *                     serialization are not read: import the logs again and save)
+     */
+    public synchronized UMCarroJa load() throws IOException {
+        this.source = null;
+        this.saved = null;
+
+        if (!Snapshots.isSnapshot(this.file)) throw new IOException(this.file + " is not a snapshot file");
+
+        SnapshotFile base = SnapshotFile.open(this.file);
+        UMCarroJa model = base.toModel();
+        this.chain = base.getChain();
+        this.sequence = 0;
+        this.baseBytes = Files.size(this.file);
+        this.deltaBytes = 0;
+
+        for (int n = 1; this.chain != 0; n++) {
+            Path path = this.deltaPath(n);
+            if (!Files.exists(path)) break;
+
+            SnapshotFile delta = SnapshotFile.open(path);
+            if (delta.getChain() != this.chain || delta.getSequence() != n) break;
+            delta.applyTo(model);
+            this.sequence = n;
+            this.deltaBytes += Files.size(path);
+        }
+
+        if (this.chain != 0) {
+            this.source = model;
+            this.saved = model.snapshot();
+        }
+        return model;
+    }
+
+    /**
+     * Saves a snapshot of a model: a delta when the model is the one last saved or loaded by this store,
+     * otherwise (or when the deltas are due to be merged) a full snapshot.
+     *
+     * @param model    Model the snapshot was taken from
+     * @param snapshot Snapshot of the model, see {@link UMCarroJa#snapshot()}
+     * @return File written
+     */
+    public synchronized Path save(UMCarroJa model, UMCarroJa snapshot) throws IOException {
+        Path written;
+
+        if (model != this.source || this.deltaBytes > this.baseBytes * MERGE_RATIO) {
+            written = this.writeFull(snapshot);
+        } else {
+            written = this.deltaPath(this.sequence + 1);
+            Snapshots.saveDelta(snapshot, this.saved, written, this.chain, this.sequence + 1, this.codec);
+            this.sequence++;
+            this.deltaBytes += Files.size(written);
+        }
+
+        this.source = model;
+        this.saved = snapshot;
+        return written;
+    }
+
+    /**
+     * Replaces the full snapshot and its deltas by a single full snapshot of the same state
+     */
+    public synchronized void merge() throws IOException {
+        if (this.saved != null && this.sequence > 0) this.writeFull(this.saved);
+    }
+
+    private Path writeFull(UMCarroJa snapshot) throws IOException {
+        long chain;
+        do {
+            chain = ThreadLocalRandom.current().nextLong();
+        } while (chain == 0 || chain == this.chain);
+        Snapshots.save(snapshot, this.file, chain, this.codec);
+
+        this.chain = chain;
+        this.sequence = 0;
+        this.baseBytes = Files.size(this.file);
+        this.deltaBytes = 0;
+
+        int n = 1;
+        while (Files.deleteIfExists(this.deltaPath(n))) n++;
+
+        return this.file;
+    }
+
+    private Path deltaPath(int sequence) {
+        return this.file.resolveSibling(this.file.getFileName() + "." + sequence);
+    }
+}
@@ -0,0 +1,454 @@
+package persistence;
+
+import model.*;
+import util.Codec;
+import util.Compression;
+import util.CompressionStats;
+import util.LazyList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Saves and loads the model in the binary snapshot format, encoding every field explicitly.
+ */
+public class Snapshots {
+
+    /**
+     * Writes a model to a file, replacing it atomically: the snapshot is written to a temporary file
+     * that is then renamed, so readers (and lazily loaded lists mapped from the old file) never see
+     * a partial file. The model should not change while it is written, so callers usually pass
+     * a {@link UMCarroJa#snapshot()}.
+     *
+     * @param model Model to save
+     * @param file  Destination file
+     */
+    public static void save(UMCarroJa model, Path file) throws IOException {
+        Snapshots.save(model, file, Codec.NONE);
+    }
+
+    /**
+     * Writes a model to a file, as {@link #save(UMCarroJa, Path)}, block-compressed with a codec.
+     * Compressed snapshots are decompressed into memory when opened, instead of being mapped.
+     *
+     * @param codec Codec of the file
+     */
+    public static void save(UMCarroJa model, Path file, Codec codec) throws IOException {
+        Snapshots.save(model, file, ThreadLocalRandom.current().nextLong(), codec);
+    }
+
+    /**
+     * Writes a full snapshot, starting a chain
+     *
+     * @param chain Id of the chain
+     */
+    static void save(UMCarroJa model, Path file, long chain, Codec codec) throws IOException {
+        Snapshots.write(file, chain, 0, codec, out -> {
+            for (Owner owner : model.viewOwners()) Snapshots.writeOwner(out, owner, null);
+            for (Client client : model.viewClients()) Snapshots.writeClient(out, client, null);
+            for (Transport transport : model.viewTransports()) Snapshots.writeTransport(out, transport, null);
+        });
+    }
+
+    /**
+     * Writes a delta with the entities of a model changed since an older snapshot of it, which must be
+     * the state held by the previous files of the chain. Of each rent history only the rents added since
+     * are written.
+     *
+     * @param model    Snapshot of the model
+     * @param previous Older snapshot of the model
+     * @param file     Destination file
+     * @param chain    Id of the chain
+     * @param sequence Position of the delta in the chain, from 1
+     * @param codec    Codec of the file
+     */
+    static void saveDelta(UMCarroJa model, UMCarroJa previous, Path file, long chain, int sequence, Codec codec)
+            throws IOException {
+        Snapshots.write(file, chain, sequence, codec, out -> model.forEachChangedSince(previous,
+                owner -> Snapshots.writeOwner(out, owner, previous.viewOwner(owner.getEmail())),
+                client -> Snapshots.writeClient(out, client, previous.viewClient(client.getEmail())),
+                transport -> Snapshots.writeTransport(out, transport, previous.viewTransport(transport.getId()))));
+    }
+
+    /**
+     * Writes a file of a chain to a temporary file (compressing it into a second one, if asked) and renames it
+     */
+    private static void write(Path file, long chain, int sequence, Codec codec, RecordWriter records)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             SnapshotOutput out = new SnapshotOutput(channel, chain, sequence)) {
+            records.write(out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (codec != Codec.NONE) {
+            Path raw = tmp;
+            tmp = file.resolveSibling(file.getFileName() + ".tmpz");
+            Compression.compress(raw, tmp, codec);
+            Files.delete(raw);
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a model from a snapshot file. Rent histories are only decoded when first used.
+     *
+     * @param file Snapshot file
+     * @return Model
+     * @throws IOException if the file can't be read or is not a snapshot
+     */
+    public static UMCarroJa load(Path file) throws IOException {
+        return SnapshotFile.open(file).toModel();
+    }
+
+    /**
+     * Checks if a file is in the binary snapshot format (as opposed to Java serialization), compressed or not
+     */
+    public static boolean isSnapshot(Path file) throws IOException {
+        try (InputStream in = Compression.newInputStream(file, new CompressionStats())) {
+            byte[] magic = new byte[4];
+            int length = in.readNBytes(magic, 0, magic.length);
+            return SnapshotInput.isSnapshot(ByteBuffer.wrap(magic, 0, length));
+        }
+    }
+
+    /**
+     * Encodes an owner, client, transport or notification on its own, as a snapshot in memory holding
+     * only its record, so the journal logs it with the same record writers as the snapshot files
+     *
+     * @param entity Entity or notification
+     * @return Snapshot, to be read by {@link #decode(byte[])}
+     */
+    static byte[] encode(Object entity) throws IOException {
+        SnapshotOutput out = new SnapshotOutput();
+
+        try {
+            if (entity instanceof Owner) Snapshots.writeOwner(out, (Owner) entity, null);
+            else if (entity instanceof Client) Snapshots.writeClient(out, (Client) entity, null);
+            else if (entity instanceof Transport) Snapshots.writeTransport(out, (Transport) entity, null);
+            else {
+                /* Notifications have no section of their own: the body is a list holding just this one */
+                out.writeVarInt(1);
+                Snapshots.writeNotification(out, (Notification) entity);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        out.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes Snapshot written by {@link #encode(Object)}
+     * @return Owner, client, transport or notification it holds
+     */
+    static Object decode(byte[] bytes) throws IOException {
+        SnapshotInput in = new SnapshotInput(ByteBuffer.wrap(bytes));
+
+        if (in.getCount(SnapshotFormat.OWNERS) == 1) return Snapshots.readOwner(in, null);
+        if (in.getCount(SnapshotFormat.CLIENTS) == 1) return Snapshots.readClient(in, null);
+        if (in.getCount(SnapshotFormat.TRANSPORTS) == 1) return Snapshots.readTransport(in, null);
+        return Snapshots.readNotifications(in).get(0);
+    }
+
+    /**
+     * Parses the number in a file name like 'prefix-12.suffix'
+     *
+     * @return Number, or -1 if the name does not match
+     */
+    static long fileNumber(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeOwner(SnapshotOutput out, Owner owner, Owner previous) {
+        try {
+            out.beginRecord(SnapshotFormat.OWNERS, owner.getEmail());
+            Snapshots.writeUser(out, owner, previous);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeClient(SnapshotOutput out, Client client, Client previous) {
+        try {
+            out.beginRecord(SnapshotFormat.CLIENTS, client.getEmail());
+            Snapshots.writeUser(out, client, previous);
+            out.writePoint(client.getPosition());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeUser(SnapshotOutput out, User user, User previous) throws IOException {
+        out.writeString(user.getName());
+        out.writeVarInt(user.getNif());
+        out.writeString(user.getEmail());
+        out.writeString(user.getAddress());
+        out.writeString(user.getHashedPassword());
+        out.writeDate(user.getBirthday());
+        out.writeDouble(user.getRating());
+        Snapshots.writeRents(out, user.viewRents(), previous == null ? null : previous.viewRents());
+        out.writeVarInt(user.viewPendingTasks().size());
+        for (Notification notification : user.viewPendingTasks()) Snapshots.writeNotification(out, notification);
+        Snapshots.writeRatings(out, user.viewRatings());
+    }
+
+    /**
+     * @param base Model the file applies to, only needed by deltas
+     */
+    static Owner readOwner(SnapshotInput in, UMCarroJa base) {
+        String name = in.readString();
+        int nif = in.readVarInt();
+        String email = in.readString();
+
+        return new Owner(name, nif, email, in.readString(), in.readString(), in.readDate(), in.readDouble(),
+                Snapshots.readRents(in, () -> base.viewOwner(email).viewRents()), Snapshots.readNotifications(in),
+                Snapshots.readRatings(in));
+    }
+
+    static Client readClient(SnapshotInput in, UMCarroJa base) {
+        String name = in.readString();
+        int nif = in.readVarInt();
+        String email = in.readString();
+
+        return new Client(name, nif, email, in.readString(), in.readString(), in.readDate(), in.readDouble(),
+                Snapshots.readRents(in, () -> base.viewClient(email).viewRents()), Snapshots.readNotifications(in),
+                Snapshots.readRatings(in), in.readPoint());
+    }
+
+    private static void writeTransport(SnapshotOutput out, Transport transport, Transport previous) {
+        try {
+            out.beginRecord(SnapshotFormat.TRANSPORTS, transport.getId());
+            Snapshots.writeTransportRecord(out, transport, previous);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeTransportRecord(SnapshotOutput out, Transport transport, Transport previous) throws IOException {
+        if (transport instanceof Hybrid) {
+            Hybrid hybrid = (Hybrid) transport;
+            out.writeByte(SnapshotFormat.HYBRID);
+            out.writeDouble(hybrid.getConsumoGas());
+            out.writeDouble(hybrid.getConsumoEletrico());
+            out.writeDouble(hybrid.getAutonomiaGas());
+            out.writeDouble(hybrid.getAutonomiaEletrico());
+        } else {
+            Car car = (Car) transport;
+            out.writeByte(SnapshotFormat.CAR);
+            out.writeString(car.getMarca());
+            out.writeDouble(car.getConsumoPercentage());
+        }
+
+        out.writeString(transport.getId());
+        out.writeVarInt(transport.getNifDono());
+        out.writeString(transport.getEmail());
+        out.writePoint(transport.getPosition());
+        out.writeDouble(transport.getAutonomy());
+        out.writeDouble(transport.getCapacity());
+        out.writeDouble(transport.getAvgVelocity());
+        out.writeDouble(transport.getRating());
+        out.writeDouble(transport.getPriceKm());
+        Snapshots.writeRents(out, transport.viewAlugueres(), previous == null ? null : previous.viewAlugueres());
+        Snapshots.writeRatings(out, transport.viewRatings());
+        out.writeDateTime(transport.getAvailableAt());
+    }
+
+    static Transport readTransport(SnapshotInput in, UMCarroJa base) {
+        int tag = in.readByte();
+
+        if (tag == SnapshotFormat.HYBRID) {
+            double consumoGas = in.readDouble();
+            double consumoEletrico = in.readDouble();
+            double autonomiaGas = in.readDouble();
+            double autonomiaEletrico = in.readDouble();
+            String id = in.readString();
+            return new Hybrid(consumoGas, consumoEletrico, autonomiaGas, autonomiaEletrico,
+                    id, in.readVarInt(), in.readString(), in.readPoint(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                    Snapshots.readRents(in, () -> base.viewTransport(id).viewAlugueres()), Snapshots.readRatings(in),
+                    in.readDateTime());
+        } else if (tag == SnapshotFormat.CAR) {
+            String marca = in.readString();
+            double consumoPercentage = in.readDouble();
+            String id = in.readString();
+            return new Car(marca, consumoPercentage,
+                    id, in.readVarInt(), in.readString(), in.readPoint(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                    Snapshots.readRents(in, () -> base.viewTransport(id).viewAlugueres()), Snapshots.readRatings(in),
+                    in.readDateTime());
+        } else {
+            throw new UncheckedIOException(new IOException("Unknown transport record " + tag));
+        }
+    }
+
+    /**
+     * In deltas, the history starts with how many rents of the previous version are kept
+     *
+     * @param previous History of the previous version of the entity, if any
+     */
+    private static void writeRents(SnapshotOutput out, List<Aluguer> rents, List<Aluguer> previous) throws IOException {
+        if (out.isDelta()) {
+            int kept = Snapshots.keptRents(rents, previous);
+            out.writeVarInt(kept);
+            rents = rents.subList(kept, rents.size());
+        }
+
+        out.writeVarInt(rents.size());
+        if (rents.isEmpty()) return;
+
+        long length = out.reserveInt();
+        long start = out.position();
+        for (Aluguer aluguer : rents) {
+            out.writeVarInt(aluguer.getNifCliente());
+            out.writeString(aluguer.getEmail());
+            out.writeDateTime(aluguer.getDate());
+            out.writeDouble(aluguer.getPrice());
+            out.writePoint(aluguer.getOrigin());
+            out.writePoint(aluguer.getDestination());
+            out.writeString(aluguer.getCombustivel());
+            out.writeString(aluguer.getPreferencia());
+        }
+        out.patchInt(length, (int) (out.position() - start));
+    }
+
+    /**
+     * Rents are almost always appended (an older one is inserted in date order, see RentHistory),
+     * so the previous history is kept whole whenever the current one extends it
+     */
+    private static int keptRents(List<Aluguer> rents, List<Aluguer> previous) {
+        if (previous == null || previous.isEmpty() || previous.size() > rents.size()) return 0;
+
+        int last = previous.size() - 1;
+        return previous.get(last).equals(rents.get(last)) ? previous.size() : 0;
+    }
+
+    /**
+     * @param previous History of the version of the entity the delta applies to
+     */
+    private static List<Aluguer> readRents(SnapshotInput in, Supplier<List<Aluguer>> previous) {
+        int kept = in.isDelta() ? in.readVarInt() : 0;
+        List<Aluguer> added = Snapshots.readRents(in);
+
+        if (kept == 0) return added;
+
+        List<Aluguer> head = previous.get().subList(0, kept);
+        return new LazyList<>(kept + added.size(), () -> {
+            List<Aluguer> rents = new ArrayList<>(head);
+            rents.addAll(added);
+            return rents;
+        });
+    }
+
+    /**
+     * Since version 2 the history is stored with its length, so it is skipped and only decoded
+     * when the list is first used
+     */
+    private static List<Aluguer> readRents(SnapshotInput in) {
+        int size = in.readVarInt();
+
+        if (size == 0 || in.getVersion() == 1) return Snapshots.decodeRents(in, size);
+
+        int length = in.readInt();
+        int start = in.position();
+        in.position(start + length);
+
+        return new LazyList<>(size, () -> Snapshots.decodeRents(in.at(start), size));
+    }
+
+    private static List<Aluguer> decodeRents(SnapshotInput in, int size) {
+        List<Aluguer> rents = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            rents.add(new Aluguer(in.readVarInt(), in.readString(), in.readDateTime(), in.readDouble(),
+                    in.readPoint(), in.readPoint(), in.readString(), in.readString()));
+        }
+
+        return rents;
+    }
+
+    private static void writeRatings(SnapshotOutput out, RatingStore ratings) throws IOException {
+        out.writeVarInt(ratings.size());
+        out.writeDoubles(ratings.toArray(), ratings.size());
+    }
+
+    private static RatingStore readRatings(SnapshotInput in) {
+        return new RatingStore(in.readDoubles(in.readVarInt()));
+    }
+
+    private static void writeNotification(SnapshotOutput out, Notification notification) throws IOException {
+        if (notification instanceof RentNotification) {
+            RentNotification rent = (RentNotification) notification;
+            out.writeByte(SnapshotFormat.RENT_NOTIFICATION);
+            out.writeVarInt(rent.getNifCliente());
+            out.writeString(rent.getId());
+            out.writeString(rent.getClient());
+            out.writeString(rent.getMode());
+            out.writePoint(rent.getDestination());
+            out.writeDouble(rent.getPrice());
+            out.writeDouble(rent.getEta());
+        } else {
+            RatingNotification rating = (RatingNotification) notification;
+            out.writeByte(SnapshotFormat.RATING_NOTIFICATION);
+            out.writeString(rating.getId());
+            out.writeVarInt(rating.getType());
+            out.writeDateTime(rating.getStart());
+        }
+        out.writeSignedVarLong(notification.getStatus());
+    }
+
+    private static List<Notification> readNotifications(SnapshotInput in) {
+        int size = in.readVarInt();
+        List<Notification> notifications = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            Notification notification;
+            if (in.readByte() == SnapshotFormat.RENT_NOTIFICATION) {
+                notification = new RentNotification(in.readVarInt(), in.readString(), in.readString(),
+                        in.readString(), in.readPoint(), in.readDouble(), in.readDouble());
+            } else {
+                RatingNotification rating = new RatingNotification(in.readString(), in.readVarInt(), 0);
+                rating.setStart(in.readDateTime());
+                notification = rating;
+            }
+            notification.setStatus((int) in.readSignedVarLong());
+            notifications.add(notification);
+        }
+
+        return notifications;
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(SnapshotOutput out) throws IOException;
+    }
+}
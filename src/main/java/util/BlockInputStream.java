@@ -0,0 +1,141 @@
+package util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by {@link BlockOutputStream}, decompressing one block at a time as it is consumed,
+ * so only a block is ever held in memory.
+ */
+public class BlockInputStream extends InputStream {
+    private final DataInputStream in;
+    private final Codec codec;
+    private final Inflater inflater;
+    private final CRC32 crc;
+    private final CompressionStats stats;
+    private final byte[] block;
+    private final byte[] compressed;
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    /**
+     * Reads the header of the file
+     *
+     * @param in    Source, positioned at the start of the file
+     * @param stats Filled with the size of every block read and the time spent decompressing it
+     * @throws IOException if the source is not a block-compressed file of a supported version
+     */
+    public BlockInputStream(InputStream in, CompressionStats stats) throws IOException {
+        this.in = new DataInputStream(in);
+        this.crc = new CRC32();
+        this.stats = stats;
+        this.block = new byte[BlockOutputStream.BLOCK_SIZE];
+        this.compressed = new byte[BlockOutputStream.BLOCK_SIZE];
+        this.position = 0;
+        this.limit = 0;
+        this.finished = false;
+
+        if (this.in.readInt() != BlockOutputStream.MAGIC) throw new IOException("Not a compressed file");
+        int version = this.in.readUnsignedByte();
+        if (version != BlockOutputStream.VERSION) throw new IOException("Unsupported compressed file version " + version);
+        try {
+            this.codec = Codec.fromId(this.in.readUnsignedByte());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        this.inflater = this.codec.newInflater();
+    }
+
+    public Codec getCodec() {
+        return this.codec;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.limit && !this.readBlock()) return -1;
+        return this.block[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (this.position == this.limit && !this.readBlock()) return -1;
+
+        int length = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.block, this.position, b, off, length);
+        this.position += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.inflater != null) this.inflater.end();
+        this.in.close();
+    }
+
+    /**
+     * Reads and decompresses the next block
+     *
+     * @return false at the end of the file
+     * @throws IOException if the file is truncated or the block is corrupted
+     */
+    private boolean readBlock() throws IOException {
+        if (this.finished) return false;
+
+        int raw, stored, checksum;
+        try {
+            raw = this.in.readInt();
+            if (raw == 0) {
+                this.finished = true;
+                return false;
+            }
+            stored = this.in.readInt();
+            checksum = this.in.readInt();
+            if (raw < 0 || raw > this.block.length || stored < 0 || stored > raw) throw new IOException("Corrupted block header");
+
+            this.in.readFully(stored == raw ? this.block : this.compressed, 0, stored);
+        } catch (EOFException e) {
+            throw new IOException("Truncated compressed file");
+        }
+
+        long start = System.nanoTime();
+        if (stored < raw) this.inflate(stored, raw);
+        this.crc.reset();
+        this.crc.update(this.block, 0, raw);
+        if ((int) this.crc.getValue() != checksum) throw new IOException("Corrupted block");
+        this.stats.addBlock(raw, BlockOutputStream.BLOCK_HEADER_SIZE + stored, System.nanoTime() - start);
+
+        this.position = 0;
+        this.limit = raw;
+        return true;
+    }
+
+    private void inflate(int stored, int raw) throws IOException {
+        if (this.inflater == null) throw new IOException("Compressed block in a file without codec");
+
+        this.codec.reset(this.inflater);
+        this.inflater.setInput(this.compressed, 0, stored);
+        try {
+            int length = 0;
+            while (length < raw && !this.inflater.finished()) {
+                int n = this.inflater.inflate(this.block, length, raw - length);
+                if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) break;
+                length += n;
+            }
+            if (length != raw) throw new IOException("Corrupted block");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted block: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a block-compressed file.
+ * <p>
+ * Layout: magic, version and codec (see {@link Codec}), then blocks of up to {@link #BLOCK_SIZE} raw bytes,
+ * each with a header holding its raw length, its stored length and the CRC32 of the raw bytes. A block whose
+ * compressed form would not be smaller is stored as it is (stored length equal to the raw length), and a
+ * raw length of 0 ends the file. Blocks are compressed independently, so a reader only needs one block
+ * in memory and a damaged block is detected by its checksum.
+ */
+public class BlockOutputStream extends FilterOutputStream {
+    /* "UMCZ" */
+    public static final int MAGIC = 0x554D435A;
+    public static final int VERSION = 1;
+    public static final int BLOCK_SIZE = 1 << 18;
+    static final int BLOCK_HEADER_SIZE = 4 + 4 + 4;
+
+    private final Codec codec;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final CompressionStats stats;
+    private final byte[] block;
+    private final byte[] compressed;
+    private final ByteBuffer header;
+    private int size;
+    private boolean finished;
+
+    /**
+     * Writes the header of the file
+     *
+     * @param out   Destination
+     * @param codec Codec of the blocks
+     * @param stats Filled with the size of every block written and the time spent compressing it
+     */
+    public BlockOutputStream(OutputStream out, Codec codec, CompressionStats stats) throws IOException {
+        super(out);
+        this.codec = codec;
+        this.deflater = codec.newDeflater();
+        this.crc = new CRC32();
+        this.stats = stats;
+        this.block = new byte[BLOCK_SIZE];
+        this.compressed = new byte[BLOCK_SIZE];
+        this.header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        this.size = 0;
+        this.finished = false;
+
+        ByteBuffer magic = ByteBuffer.allocate(4 + 1 + 1).putInt(MAGIC).put((byte) VERSION).put((byte) codec.getId());
+        this.out.write(magic.array());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.size == this.block.length) this.writeBlock();
+        this.block[this.size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.size == this.block.length) this.writeBlock();
+
+            int length = Math.min(len, this.block.length - this.size);
+            System.arraycopy(b, off, this.block, this.size, length);
+            this.size += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Writes the bytes given so far as a (possibly short) block
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.size > 0) this.writeBlock();
+        this.out.flush();
+    }
+
+    /**
+     * Writes the last block and the end of the file, without closing the destination
+     */
+    public void finish() throws IOException {
+        if (this.finished) return;
+
+        if (this.size > 0) this.writeBlock();
+        this.out.write(new byte[4]);
+        this.out.flush();
+        this.finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.finish();
+        } finally {
+            if (this.deflater != null) this.deflater.end();
+            this.out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        long start = System.nanoTime();
+        byte[] data = this.block;
+        int stored = this.size;
+
+        this.crc.reset();
+        this.crc.update(this.block, 0, this.size);
+
+        if (this.deflater != null) {
+            this.codec.reset(this.deflater);
+            this.deflater.setInput(this.block, 0, this.size);
+            this.deflater.finish();
+
+            int length = 0;
+            while (!this.deflater.finished() && length < this.compressed.length) {
+                length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+            }
+            if (this.deflater.finished() && length < this.size) {
+                data = this.compressed;
+                stored = length;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        this.header.clear();
+        this.header.putInt(this.size).putInt(stored).putInt((int) this.crc.getValue());
+        this.out.write(this.header.array());
+        this.out.write(data, 0, stored);
+
+        this.stats.addBlock(this.size, BLOCK_HEADER_SIZE + stored, elapsed);
+        this.size = 0;
+    }
+}
@@ -0,0 +1,87 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs of block-compressed files (see {@link BlockOutputStream}), all built on the JDK's Deflater.
+ */
+public enum Codec {
+    /**
+     * Blocks are stored as they are
+     */
+    NONE(0),
+    /**
+     * Blocks are compressed with Deflater at its fastest level
+     */
+    DEFLATE(1),
+    /**
+     * As DEFLATE, with a preset dictionary of the strings that repeat in logs and saved models (keywords,
+     * the email domain, class names), which helps the first kilobytes of each block compress
+     */
+    DEFLATE_DICTIONARY(2);
+
+    /* Deflate looks for matches closer to the end of the dictionary first, so the most frequent strings go last */
+    private static final byte[] DICTIONARY = String.join("",
+            "java.util.ArrayListjava.util.HashMapjava.util.TreeMapjava.time.LocalDateTime",
+            "java.awt.geom.Point2D$Doublemodel.RentNotificationmodel.RatingNotificationmodel.Usermodel.Owner",
+            "model.Clientmodel.Transportmodel.Carmodel.Hybridmodel.Aluguer",
+            "NovoProp:NovoCliente:NovoCarro:Classificar:Aluguer:",
+            ",Electrico,Gasolina,Hibrido,MaisBarato,MaisPerto,Rua ,Braga,Porto,Lisboa,",
+            "@gmail.com,@gmail.com,").getBytes(StandardCharsets.UTF_8);
+
+    private final int id;
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return Number of the codec in the header of a file
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @param id Number of a codec
+     * @return Codec
+     * @throws IllegalArgumentException if there is no codec with that number
+     */
+    public static Codec fromId(int id) {
+        for (Codec codec : Codec.values()) {
+            if (codec.id == id) return codec;
+        }
+        throw new IllegalArgumentException("Unknown codec " + id);
+    }
+
+    /**
+     * @return Deflater of this codec, to be prepared with {@link #reset(Deflater)} before each block;
+     * null for NONE
+     */
+    Deflater newDeflater() {
+        return this == NONE ? null : new Deflater(Deflater.BEST_SPEED, true);
+    }
+
+    /**
+     * @return Inflater of this codec, to be prepared with {@link #reset(Inflater)} before each block;
+     * null for NONE
+     */
+    Inflater newInflater() {
+        return this == NONE ? null : new Inflater(true);
+    }
+
+    /**
+     * Prepares a deflater for a new block, which is compressed independently of the previous ones
+     */
+    void reset(Deflater deflater) {
+        deflater.reset();
+        if (this == DEFLATE_DICTIONARY) deflater.setDictionary(DICTIONARY);
+    }
+
+    void reset(Inflater inflater) {
+        inflater.reset();
+        if (this == DEFLATE_DICTIONARY) inflater.setDictionary(DICTIONARY);
+    }
+}
@@ -0,0 +1,99 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Opens files that may be block-compressed (see {@link BlockOutputStream}), telling them apart from plain
+ * files by their magic number.
+ */
+public final class Compression {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Compression() {
+    }
+
+    /**
+     * @return true if the file was written by a {@link BlockOutputStream}
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readInt() == BlockOutputStream.MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a file for reading, decompressing it as it is read if it is block-compressed
+     *
+     * @param file  File
+     * @param stats Filled with the blocks read, if the file is compressed
+     * @return Stream with the raw contents of the file
+     */
+    public static InputStream newInputStream(Path file, CompressionStats stats) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+
+        try {
+            in.mark(4);
+            DataInputStream magic = new DataInputStream(in);
+            boolean compressed;
+            try {
+                compressed = magic.readInt() == BlockOutputStream.MAGIC;
+            } catch (EOFException e) {
+                compressed = false;
+            }
+            in.reset();
+
+            return compressed ? new BlockInputStream(in, stats) : in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file for writing, replacing it
+     *
+     * @param file  File
+     * @param codec Codec of the blocks; NONE writes a plain file
+     * @param stats Filled with the blocks written
+     */
+    public static OutputStream newOutputStream(Path file, Codec codec, CompressionStats stats) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+
+        return codec == Codec.NONE ? out : new BlockOutputStream(out, codec, stats);
+    }
+
+    /**
+     * Writes a compressed copy of a file and forces it to disk
+     *
+     * @param source File to compress
+     * @param target Destination, replaced if it exists
+     * @param codec  Codec of the blocks
+     * @return Size of the copy and compression throughput
+     */
+    public static CompressionStats compress(Path source, Path target, Codec codec) throws IOException {
+        CompressionStats stats = new CompressionStats();
+        byte[] buffer = new byte[BlockOutputStream.BLOCK_SIZE];
+
+        try (InputStream in = Files.newInputStream(source);
+             FileOutputStream file = new FileOutputStream(target.toFile());
+             BlockOutputStream out = new BlockOutputStream(file, codec, stats)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+            out.finish();
+            file.getFD().sync();
+        }
+
+        return stats;
+    }
+}
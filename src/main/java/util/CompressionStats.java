@@ -0,0 +1,71 @@
+package util;
+
+/**
+ * Counters filled while a block-compressed file is written or read, used to track the compression ratio
+ * and the throughput of the codec.
+ */
+public class CompressionStats {
+    private long rawBytes;
+    private long storedBytes;
+    private long blocks;
+    private long codecNanos;
+
+    public CompressionStats() {
+        this.rawBytes = 0;
+        this.storedBytes = 0;
+        this.blocks = 0;
+        this.codecNanos = 0;
+    }
+
+    void addBlock(long rawBytes, long storedBytes, long codecNanos) {
+        this.rawBytes += rawBytes;
+        this.storedBytes += storedBytes;
+        this.blocks++;
+        this.codecNanos += codecNanos;
+    }
+
+    /**
+     * @return Number of bytes before compression
+     */
+    public long getRawBytes() {
+        return this.rawBytes;
+    }
+
+    /**
+     * @return Number of bytes in the file, block headers included
+     */
+    public long getStoredBytes() {
+        return this.storedBytes;
+    }
+
+    public long getBlocks() {
+        return this.blocks;
+    }
+
+    /**
+     * @return Raw bytes per stored byte (1 when nothing was compressed)
+     */
+    public double getRatio() {
+        return this.storedBytes == 0 ? 1 : (double) this.rawBytes / this.storedBytes;
+    }
+
+    /**
+     * @return Time spent compressing or decompressing, in seconds
+     */
+    public double getSeconds() {
+        return this.codecNanos / 1e9;
+    }
+
+    /**
+     * @return Raw megabytes compressed or decompressed per second of codec time
+     */
+    public double getMegabytesPerSecond() {
+        return this.codecNanos == 0 ? 0 : this.rawBytes / 1e6 / this.getSeconds();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes stored as %d in %d blocks (ratio %.2f, %.0f MB/s)",
+                this.rawBytes, this.storedBytes, this.blocks, this.getRatio(), this.getMegabytesPerSecond());
+    }
+}
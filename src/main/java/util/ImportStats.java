@@ -0,0 +1,79 @@
+package util;
+
+/**
+ * Counters filled by an import, used to track its throughput.
+ */
+public class ImportStats {
+    private long lines;
+    private long errors;
+    private long startNanos;
+    private long elapsedNanos;
+    private final CompressionStats compression;
+
+    public ImportStats() {
+        this.lines = 0;
+        this.errors = 0;
+        this.startNanos = 0;
+        this.elapsedNanos = 0;
+        this.compression = new CompressionStats();
+    }
+
+    void start() {
+        this.startNanos = System.nanoTime();
+    }
+
+    void stop() {
+        this.elapsedNanos = System.nanoTime() - this.startNanos;
+    }
+
+    void addLines(long lines) {
+        this.lines += lines;
+    }
+
+    void addErrors(long errors) {
+        this.errors += errors;
+    }
+
+    /**
+     * @return Number of lines read
+     */
+    public long getLines() {
+        return this.lines;
+    }
+
+    /**
+     * @return Number of lines that could not be imported
+     */
+    public long getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * @return Duration of the import in seconds
+     */
+    public double getSeconds() {
+        return this.elapsedNanos / 1e9;
+    }
+
+    /**
+     * @return Lines read per second
+     */
+    public double getLinesPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.lines / this.getSeconds();
+    }
+
+    /**
+     * @return Compression ratio and throughput of the file, if it was compressed
+     */
+    public CompressionStats getCompression() {
+        return this.compression;
+    }
+
+    @Override
+    public String toString() {
+        String read = String.format("Read %d lines (%d errors) in %.3f s (%.0f lines/s)",
+                this.lines, this.errors, this.getSeconds(), this.getLinesPerSecond());
+
+        return this.compression.getBlocks() == 0 ? read : read + ", decompressed " + this.compression;
+    }
+}
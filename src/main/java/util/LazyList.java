@@ -0,0 +1,90 @@
+package util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+/**
+ * List whose elements are only loaded when they are first needed. The size is known up front, so
+ * asking for it does not load the elements. Once loaded, it behaves as an ArrayList.
+ * Loading is thread-safe; changes must be synchronized by the owner of the list, as for an ArrayList.
+ *
+ * @param <E> Type of the elements
+ */
+public class LazyList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+    private final int initialSize;
+    private transient Supplier<List<E>> loader;
+    private transient volatile List<E> list;
+
+    /**
+     * @param size   Number of elements the loader will return
+     * @param loader Loads the elements, called at most once
+     */
+    public LazyList(int size, Supplier<List<E>> loader) {
+        this.initialSize = size;
+        this.loader = loader;
+        this.list = null;
+    }
+
+    /**
+     * @return true if the elements were already loaded
+     */
+    public boolean isLoaded() {
+        return this.list != null;
+    }
+
+    @Override
+    public int size() {
+        List<E> list = this.list;
+        return list == null ? this.initialSize : list.size();
+    }
+
+    @Override
+    public E get(int index) {
+        return this.load().get(index);
+    }
+
+    @Override
+    public E set(int index, E element) {
+        return this.load().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        this.load().add(index, element);
+        this.modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        this.modCount++;
+        return this.load().remove(index);
+    }
+
+    private List<E> load() {
+        List<E> list = this.list;
+
+        if (list == null) {
+            synchronized (this) {
+                list = this.list;
+                if (list == null) {
+                    list = new ArrayList<>(this.loader.get());
+                    this.loader = null;
+                    this.list = list;
+                }
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Serialized as a plain list, since the loader usually reads from a mapped file
+     */
+    private Object writeReplace() {
+        return new ArrayList<>(this.load());
+    }
+}
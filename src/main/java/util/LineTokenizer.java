@@ -0,0 +1,110 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Splits log lines of the form "Keyword:field,field,..." without regular expressions.
+ * Only the boundaries of the fields are recorded; a field is turned into a String when it is read,
+ * and the same tokenizer is reused for every line of a file.
+ */
+public class LineTokenizer {
+    private String line;
+    private int keywordEnd;
+    private int[] bounds;
+    private int size;
+
+    public LineTokenizer() {
+        this.bounds = new int[32];
+    }
+
+    /**
+     * Tokenizes a new line.
+     *
+     * @param line Line to tokenize
+     * @return false if the line has no keyword separator
+     */
+    public boolean reset(String line) {
+        this.line = line;
+        this.size = 0;
+        this.keywordEnd = line.indexOf(':');
+
+        if (this.keywordEnd < 0) return false;
+
+        /* Like split(":"), anything after a second ':' is ignored */
+        int end = line.indexOf(':', this.keywordEnd + 1);
+        if (end < 0) end = line.length();
+
+        int start = this.keywordEnd + 1;
+        int comma;
+        while ((comma = line.indexOf(',', start)) >= 0 && comma < end) {
+            this.add(start, comma);
+            start = comma + 1;
+        }
+        this.add(start, end);
+
+        /* Like split(","), trailing empty fields are dropped */
+        while (this.size > 0 && this.bounds[2 * this.size - 2] == this.bounds[2 * this.size - 1]) this.size--;
+
+        return true;
+    }
+
+    /**
+     * @param keyword Keyword to compare with
+     * @return true if the current line starts with the given keyword
+     */
+    public boolean isKeyword(String keyword) {
+        return this.keywordEnd == keyword.length() && this.line.startsWith(keyword);
+    }
+
+    public String getKeyword() {
+        return this.line.substring(0, this.keywordEnd);
+    }
+
+    public String getLine() {
+        return this.line;
+    }
+
+    /**
+     * @return Number of fields of the current line
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param i Index of the field
+     * @return Field as a String
+     * @throws ArrayIndexOutOfBoundsException if the line has fewer fields
+     */
+    public String get(int i) {
+        if (i >= this.size) throw new ArrayIndexOutOfBoundsException(i);
+        return this.line.substring(this.bounds[2 * i], this.bounds[2 * i + 1]);
+    }
+
+    /**
+     * @param i     Index of the field
+     * @param value Value to compare with
+     * @return true if the field is equal to the given value, without creating a String for it
+     */
+    public boolean fieldEquals(int i, String value) {
+        if (i >= this.size) throw new ArrayIndexOutOfBoundsException(i);
+        int start = this.bounds[2 * i];
+        return this.bounds[2 * i + 1] - start == value.length() && this.line.startsWith(value, start);
+    }
+
+    public int getInt(int i) {
+        if (i >= this.size) throw new ArrayIndexOutOfBoundsException(i);
+        return Integer.parseInt(this.line, this.bounds[2 * i], this.bounds[2 * i + 1], 10);
+    }
+
+    public double getDouble(int i) {
+        return Double.parseDouble(this.get(i));
+    }
+
+    private void add(int start, int end) {
+        if (2 * this.size + 2 > this.bounds.length) this.bounds = Arrays.copyOf(this.bounds, this.bounds.length * 2);
+        this.bounds[2 * this.size] = start;
+        this.bounds[2 * this.size + 1] = end;
+        this.size++;
+    }
+}
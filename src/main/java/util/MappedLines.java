@@ -0,0 +1,153 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the lines of a UTF-8 file straight from memory-mapped regions of it.
+ * Regions and their segments always end at a line boundary, so they can be scanned independently.
+ */
+public class MappedLines {
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Maps a file in read-only regions of at most 'maxChunk' bytes, each ending just after a new line
+     * (or at the end of the file).
+     *
+     * @param channel  Channel of the file
+     * @param maxChunk Maximum size of a region, at most Integer.MAX_VALUE
+     * @return Mapped regions, in file order
+     * @throws IOException if the file can't be mapped or has a line longer than 'maxChunk'
+     */
+    public static List<ByteBuffer> map(FileChannel channel, int maxChunk) throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+
+        while (position < size) {
+            int length = (int) Math.min(maxChunk, size - position);
+            ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            if (position + length < size) {
+                length = MappedLines.lastLineEnd(chunk, 0, length);
+                if (length == 0) throw new IOException("Line longer than " + maxChunk + " bytes at offset " + position);
+                chunk.limit(length);
+            }
+
+            chunks.add(chunk.slice());
+            position += length;
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Splits a region in segments of about 'segmentSize' bytes, each ending just after a new line.
+     * The segments share the memory of the region.
+     *
+     * @param chunk       Region ending at a line boundary
+     * @param segmentSize Desired size of a segment
+     * @return Segments, in order
+     */
+    public static List<ByteBuffer> split(ByteBuffer chunk, int segmentSize) {
+        List<ByteBuffer> segments = new ArrayList<>();
+        int limit = chunk.limit();
+        int start = 0;
+
+        while (start < limit) {
+            int end = segmentSize >= limit - start ? limit : MappedLines.nextLineEnd(chunk, start + segmentSize, limit);
+            ByteBuffer segment = chunk.duplicate();
+            segment.position(start).limit(end);
+            segments.add(segment.slice());
+            start = end;
+        }
+
+        return segments;
+    }
+
+    /**
+     * Decodes each line of a segment, without the line terminator ("\n" or "\r\n").
+     *
+     * @param segment Segment ending at a line boundary
+     * @param action  Action to run on each line
+     */
+    public static void forEachLine(ByteBuffer segment, Consumer<String> action) {
+        MappedLines.forEachLine(segment, action, BLOCK_SIZE);
+    }
+
+    /**
+     * Copies the segment in blocks of 'blockSize' bytes with bulk gets and decodes the lines straight
+     * from the block. A line that doesn't end in the block is moved to its start (the block doubles
+     * if the line fills it) and completed by the next copy.
+     */
+    static void forEachLine(ByteBuffer segment, Consumer<String> action, int blockSize) {
+        ByteBuffer view = segment.duplicate();
+        byte[] block = new byte[blockSize];
+        int filled = 0;
+        int scanned = 0;
+
+        view.position(0);
+        while (true) {
+            int read = Math.min(block.length - filled, view.remaining());
+            view.get(block, filled, read);
+            filled += read;
+
+            int start = 0;
+            for (int i = scanned; i < filled; i++) {
+                if (block[i] == NEW_LINE) {
+                    MappedLines.decode(block, start, i, action);
+                    start = i + 1;
+                }
+            }
+
+            if (!view.hasRemaining()) {
+                if (start < filled) MappedLines.decode(block, start, filled, action);
+                return;
+            }
+
+            if (start == 0) {
+                block = Arrays.copyOf(block, 2 * block.length);
+            } else {
+                System.arraycopy(block, start, block, 0, filled - start);
+                filled -= start;
+            }
+            scanned = filled;
+        }
+    }
+
+    /**
+     * Runs the action on the line in [from, to) of the block, without a trailing carriage return
+     */
+    private static void decode(byte[] block, int from, int to, Consumer<String> action) {
+        if (to > from && block[to - 1] == CARRIAGE_RETURN) to--;
+        action.accept(new String(block, from, to - from, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Position just after the last new line in [from, to), or 'from' if there is none
+     */
+    private static int lastLineEnd(ByteBuffer buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buffer.get(i) == NEW_LINE) return i + 1;
+        }
+        return from;
+    }
+
+    /**
+     * @return Position just after the first new line in [from, limit), or 'limit' if there is none
+     */
+    private static int nextLineEnd(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == NEW_LINE) return i + 1;
+        }
+        return limit;
+    }
+}
@@ -7,12 +7,26 @@ import view.IO;
 
 import java.awt.geom.Point2D;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.InputMismatchException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Parse {
     private static final String EMAIL_SUFFIX = "@gmail.com";
+    private static final int BATCH_SIZE = 1 << 15;
+    private static final int MAPPED_CHUNK_SIZE = 1 << 30;
+    private static final int SEGMENT_SIZE = 1 << 20;
 
     /**
      * Function that reads all lines from a file.
@@ -36,190 +50,366 @@ public class Parse {
     }
 
     public static void saveObject(Object object, String file) throws IOException {
-        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
-        out.writeObject(object);
+        Parse.saveObject(object, file, Codec.NONE, new CompressionStats());
+    }
+
+    /**
+     * Saves an object with Java serialization, optionally block-compressed.
+     *
+     * @param codec Codec of the file
+     * @param stats Filled with the compression ratio and throughput
+     */
+    public static void saveObject(Object object, String file, Codec codec, CompressionStats stats) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(Compression.newOutputStream(Paths.get(file), codec, stats))) {
+            out.writeObject(object);
+        }
     }
 
     public static Object loadObject(String file) throws ClassNotFoundException, IOException {
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        Object obj = in.readObject();
-        return obj;
+        return Parse.loadObject(file, new CompressionStats());
+    }
+
+    /**
+     * Loads an object saved with Java serialization, decompressing the file as it is read if needed.
+     *
+     * @param stats Filled with the compression ratio and throughput, if the file is compressed
+     */
+    public static Object loadObject(String file, CompressionStats stats) throws ClassNotFoundException, IOException {
+        try (ObjectInputStream in = new ObjectInputStream(Compression.newInputStream(Paths.get(file), stats))) {
+            return in.readObject();
+        }
     }
 
     public static UMCarroJa importData(String file) {
-        List<String> lines = Parse.readFile(file);
+        return Parse.importData(file, new ImportStats());
+    }
+
+    /**
+     * Imports a log file line by line, without keeping the whole file in memory.
+     *
+     * @param file  Log file
+     * @param stats Filled with the number of lines read and the import throughput
+     * @return Model with the imported data
+     */
+    public static UMCarroJa importData(String file, ImportStats stats) {
         UMCarroJa model = new UMCarroJa();
+        LineTokenizer tokenizer = new LineTokenizer();
+        String line;
 
-        for (String line : lines) {
-            Parse.processLine(model, line);
+        stats.start();
+        try (BufferedReader in = Parse.openReader(file, stats)) {
+            while ((line = in.readLine()) != null) {
+                stats.addLines(1);
+                if (!Parse.processLine(model, tokenizer, line)) stats.addErrors(1);
+            }
+        } catch (IOException e) {
+            IO.error(e.getMessage());
         }
+        stats.stop();
 
         return model;
     }
 
-    private static void processLine(UMCarroJa model, String line) {
-        String[] keyword = line.split(":");
-        String[] fields = keyword[1].split(",");
-        switch (keyword[0]) {
-            case "NovoProp":
-                Owner owner = Parse.buildOwner(fields);
-                if (owner != null) model.addOwner(owner);
-                else IO.error(line);
-                break;
-            case "NovoCliente":
-                Client client = Parse.buildClient(fields);
-                if (client != null) model.addClient(client);
-                else IO.error(line);
-                break;
-            case "NovoCarro":
-                Transport transport = Parse.buildTransport(fields);
-                if (transport != null) model.addTransport(Parse.buildTransport(fields));
-                else IO.error(line);
-                break;
-            case "Aluguer":
-                String email = fields[0] + Parse.EMAIL_SUFFIX;
-                Transport tpt = null;
-                Aluguer aluguer;
-                try {
-                    aluguer = Parse.buildAluguer(model, fields);
-                    switch (fields[4]) {
-                        case "MaisBarato":
-                            switch (fields[3]) {
-                                case "Electrico":
-                                case "Gasolina":
-                                    tpt = model.getCheapestCarNormal(email);
-                                    break;
-                                case "Hibrido":
-                                    tpt = model.getCheapestCarHybrid(email);
-                                    break;
-                                default:
-                                    break;
-                            }
-                            break;
-                        case "MaisPerto":
-                            switch (fields[3]) {
-                                case "Electrico":
-                                case "Gasolina":
-                                    tpt = model.getClosestCarNormal(email);
-                                    break;
-                                case "Hibrido":
-                                    tpt = model.getClosestCarHybrid(email);
-                                    break;
-                                default:
-                                    break;
-                            }
-                            break;
-                        default:
-                            break;
-                    }
-                    if (aluguer != null && tpt != null) {
-                        double distance = aluguer.getOrigin().distance(aluguer.getDestination());
-                        double price = distance * tpt.getPriceKm();
-                        aluguer.setPrice(price);
-                        model.updateLocationClient(email, aluguer.getDestination());
-                        model.updateLocationTransport(tpt.getId(), aluguer.getOrigin(), aluguer.getDestination());
-                        model.addAluguerToClient(aluguer, email);
-                        model.addAluguerToOwner(aluguer, tpt.getEmail());
-                        model.addAluguerToTransport(aluguer, tpt.getId());
+    /**
+     * Opens a UTF-8 file for reading through a buffered channel reader, or through a decompressing stream
+     * if the file is block-compressed. Malformed bytes are replaced instead of aborting the import.
+     */
+    private static BufferedReader openReader(String file, ImportStats stats) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        Path path = Paths.get(file);
+
+        if (Compression.isCompressed(path)) {
+            return new BufferedReader(new InputStreamReader(Compression.newInputStream(path, stats.getCompression()), decoder), 1 << 16);
+        }
+        return new BufferedReader(Channels.newReader(FileChannel.open(path), decoder, -1), 1 << 16);
+    }
+
+    /**
+     * Imports a log file in two phases. Batches of lines are read sequentially, and the owners,
+     * clients and transports they declare are parsed and built in parallel on the fork-join pool.
+     * Every line of the batch is then applied to the model in its original order,
+     * so the result is the same as the one of a sequential import.
+     *
+     * @param file  Log file
+     * @param stats Filled with the number of lines read and the import throughput
+     * @return Model with the imported data
+     */
+    public static UMCarroJa importDataParallel(String file, ImportStats stats) {
+        UMCarroJa model = new UMCarroJa();
+        LineTokenizer tokenizer = new LineTokenizer();
+        ThreadLocal<LineTokenizer> tokenizers = ThreadLocal.withInitial(LineTokenizer::new);
+        String[] lines = new String[Parse.BATCH_SIZE];
+        Object[] entities = new Object[Parse.BATCH_SIZE];
+        int size;
+
+        stats.start();
+        try (BufferedReader in = Parse.openReader(file, stats)) {
+            do {
+                size = 0;
+                while (size < lines.length && (lines[size] = in.readLine()) != null) size++;
+
+                IntStream.range(0, size).parallel().forEach(i -> {
+                    LineTokenizer fields = tokenizers.get();
+                    entities[i] = fields.reset(lines[i]) ? Parse.buildEntity(fields) : null;
+                });
+
+                for (int i = 0; i < size; i++) {
+                    stats.addLines(1);
+                    if (!Parse.processLine(model, tokenizer, lines[i], entities[i])) stats.addErrors(1);
+                }
+            } while (size == lines.length);
+        } catch (IOException e) {
+            IO.error(e.getMessage());
+        }
+        stats.stop();
+
+        return model;
+    }
+
+    /**
+     * Imports a log file by memory-mapping it instead of reading it through a Reader.
+     * The mapped regions are split in segments at line boundaries; a group of segments is decoded,
+     * tokenized and has its entities built in parallel, and its lines are then applied to the
+     * model in their original order, as in importDataParallel.
+     * Compressed files can't be mapped, and are imported with importDataParallel.
+     *
+     * @param file  Log file
+     * @param stats Filled with the number of lines read and the import throughput
+     * @return Model with the imported data
+     */
+    public static UMCarroJa importDataMapped(String file, ImportStats stats) {
+        UMCarroJa model = new UMCarroJa();
+        LineTokenizer tokenizer = new LineTokenizer();
+        ThreadLocal<LineTokenizer> tokenizers = ThreadLocal.withInitial(LineTokenizer::new);
+        int group = 2 * ForkJoinPool.getCommonPoolParallelism();
+
+        try {
+            if (Compression.isCompressed(Paths.get(file))) return Parse.importDataParallel(file, stats);
+        } catch (IOException e) {
+            IO.error(e.getMessage());
+            return model;
+        }
+
+        stats.start();
+        try (FileChannel channel = FileChannel.open(Paths.get(file))) {
+            for (ByteBuffer chunk : MappedLines.map(channel, Parse.MAPPED_CHUNK_SIZE)) {
+                List<ByteBuffer> segments = MappedLines.split(chunk, Parse.SEGMENT_SIZE);
+
+                for (int from = 0; from < segments.size(); from += group) {
+                    List<Batch> batches = segments.subList(from, Math.min(from + group, segments.size()))
+                            .parallelStream()
+                            .map(segment -> Parse.buildBatch(segment, tokenizers.get()))
+                            .collect(Collectors.toList());
+
+                    for (Batch batch : batches) {
+                        for (int i = 0; i < batch.lines.size(); i++) {
+                            stats.addLines(1);
+                            if (!Parse.processLine(model, tokenizer, batch.lines.get(i), batch.entities.get(i)))
+                                stats.addErrors(1);
+                        }
                     }
-                } catch (NoAvailableTransport | NoSuchUser e) {
-                    IO.error(e.getMessage() + " in line: " + line);
-                    break;
                 }
-                break;
-            case "Classificar":
-                try {
+            }
+        } catch (IOException e) {
+            IO.error(e.getMessage());
+        }
+        stats.stop();
+
+        return model;
+    }
+
+    /**
+     * Decodes the lines of a mapped segment and builds the entities they declare
+     */
+    private static Batch buildBatch(ByteBuffer segment, LineTokenizer fields) {
+        Batch batch = new Batch();
+
+        MappedLines.forEachLine(segment, line -> {
+            batch.lines.add(line);
+            batch.entities.add(fields.reset(line) ? Parse.buildEntity(fields) : null);
+        });
+
+        return batch;
+    }
+
+    /**
+     * @return false if the line could not be imported
+     */
+    private static boolean processLine(UMCarroJa model, LineTokenizer fields, String line) {
+        return Parse.processLine(model, fields, line, fields.reset(line) ? Parse.buildEntity(fields) : null);
+    }
+
+    /**
+     * @param entity Entity already built from the line by buildEntity
+     * @return false if the line could not be imported
+     */
+    private static boolean processLine(UMCarroJa model, LineTokenizer fields, String line, Object entity) {
+        if (!fields.reset(line)) {
+            IO.error(line);
+            return false;
+        }
+
+        try {
+            switch (fields.getKeyword()) {
+                case "NovoProp":
+                    if (entity == null) break;
+                    model.addOwner((Owner) entity);
+                    return true;
+                case "NovoCliente":
+                    if (entity == null) break;
+                    model.addClient((Client) entity);
+                    return true;
+                case "NovoCarro":
+                    if (entity == null) break;
+                    model.addTransport((Transport) entity);
+                    return true;
+                case "Aluguer":
+                    return Parse.aluguer(model, fields);
+                case "Classificar":
                     Parse.classificar(model, fields);
-                } catch (InputMismatchException | NumberFormatException e) {
-                    IO.error(line);
-                }
-                break;
-            default:
-                IO.error(line);
-                break;
+                    return true;
+                default:
+                    break;
+            }
+        } catch (InputMismatchException | NumberFormatException | IndexOutOfBoundsException e) {
+            // Reported below
         }
+
+        IO.error(line);
+        return false;
+    }
+
+    /**
+     * Builds the owner, client or transport declared by a line. Does not depend on the model,
+     * so it can run in parallel for different lines.
+     *
+     * @return Entity, or null if the line does not declare one or is invalid
+     */
+    private static Object buildEntity(LineTokenizer fields) {
+        try {
+            if (fields.isKeyword("NovoProp")) return Parse.buildOwner(fields);
+            if (fields.isKeyword("NovoCliente")) return Parse.buildClient(fields);
+            if (fields.isKeyword("NovoCarro")) return Parse.buildTransport(fields);
+        } catch (IndexOutOfBoundsException e) {
+            // Reported when the line is applied
+        }
+
+        return null;
     }
 
-    private static Owner buildOwner(String[] fields) {
+    private static boolean aluguer(UMCarroJa model, LineTokenizer fields) {
+        String email = fields.get(0) + Parse.EMAIL_SUFFIX;
+        Transport tpt = null;
+        Aluguer aluguer;
+        try {
+            aluguer = Parse.buildAluguer(model, fields);
+            boolean hybrid = fields.fieldEquals(3, "Hibrido");
+            boolean normal = fields.fieldEquals(3, "Electrico") || fields.fieldEquals(3, "Gasolina");
+            if (fields.fieldEquals(4, "MaisBarato")) {
+                if (normal) tpt = model.reserve(email, e -> model.getCheapestCarNormal());
+                else if (hybrid) tpt = model.reserve(email, e -> model.getCheapestCarHybrid());
+            } else if (fields.fieldEquals(4, "MaisPerto")) {
+                if (normal) tpt = model.reserve(email, model::getClosestCarNormal);
+                else if (hybrid) tpt = model.reserve(email, model::getClosestCarHybrid);
+            }
+            if (tpt != null && aluguer == null) {
+                model.releaseReservation(tpt.getId(), email);
+            } else if (tpt != null && model.commitReservation(tpt.getId(), email, aluguer.getOrigin(), aluguer.getDestination())) {
+                double distance = aluguer.getOrigin().distance(aluguer.getDestination());
+                double price = distance * tpt.getPriceKm();
+                aluguer.setPrice(price);
+                model.updateLocationClient(email, aluguer.getDestination());
+                model.addAluguerToClient(aluguer, email);
+                model.addAluguerToOwner(aluguer, tpt.getEmail());
+                model.addAluguerToTransport(aluguer, tpt.getId());
+            }
+        } catch (NoAvailableTransport | NoSuchUser e) {
+            IO.error(e.getMessage() + " in line: " + fields.getLine());
+            return false;
+        }
+        return true;
+    }
+
+    private static Owner buildOwner(LineTokenizer fields) {
         int nif;
 
         try {
-            nif = Integer.parseInt(fields[1]);
+            nif = fields.getInt(1);
         } catch (InputMismatchException | NumberFormatException e) {
             return null;
         }
 
-        return new Owner(fields[0], nif, fields[2], fields[3]);
+        return new Owner(fields.get(0), nif, fields.get(2), fields.get(3));
     }
 
-    private static Client buildClient(String[] fields) {
+    private static Client buildClient(LineTokenizer fields) {
         int nif;
         double posX, posY;
 
         try {
-            nif = Integer.parseInt(fields[1]);
-            posX = Double.parseDouble(fields[4]);
-            posY = Double.parseDouble(fields[5]);
+            nif = fields.getInt(1);
+            posX = fields.getDouble(4);
+            posY = fields.getDouble(5);
 
         } catch (InputMismatchException | NumberFormatException e) {
             return null;
         }
 
-        return new Client(fields[0], nif, fields[2], fields[3], posX, posY);
+        return new Client(fields.get(0), nif, fields.get(2), fields.get(3), posX, posY);
     }
 
-    private static Transport buildTransport(String[] fields) {
+    private static Transport buildTransport(LineTokenizer fields) {
         int nif;
         double avgVelocity, priceKm, consumo, autonomia, posX, posY;
 
         try {
-            nif = Integer.parseInt(fields[3]);
-            avgVelocity = Double.parseDouble(fields[4]);
-            priceKm = Double.parseDouble(fields[5]);
-            consumo = Double.parseDouble(fields[6]);
-            autonomia = Double.parseDouble(fields[7]);
-            posX = Double.parseDouble(fields[8]);
-            posY = Double.parseDouble(fields[9]);
+            nif = fields.getInt(3);
+            avgVelocity = fields.getDouble(4);
+            priceKm = fields.getDouble(5);
+            consumo = fields.getDouble(6);
+            autonomia = fields.getDouble(7);
+            posX = fields.getDouble(8);
+            posY = fields.getDouble(9);
         } catch (InputMismatchException | NumberFormatException e) {
             return null;
         }
 
-        switch (fields[0]) {
-            case "Electrico":
-            case "Gasolina":
-                return new Car(fields[1], fields[2], nif, "" + nif + Parse.EMAIL_SUFFIX, avgVelocity, priceKm, consumo, autonomia, posX, posY);
-            case "Hibrido":
-                return new Hybrid(fields[1], fields[2], nif, "" + nif + Parse.EMAIL_SUFFIX, avgVelocity, priceKm, consumo, autonomia, posX, posY);
-            default:
-                return null;
+        if (fields.fieldEquals(0, "Electrico") || fields.fieldEquals(0, "Gasolina")) {
+            return new Car(fields.get(1), fields.get(2), nif, "" + nif + Parse.EMAIL_SUFFIX, avgVelocity, priceKm, consumo, autonomia, posX, posY);
+        } else if (fields.fieldEquals(0, "Hibrido")) {
+            return new Hybrid(fields.get(1), fields.get(2), nif, "" + nif + Parse.EMAIL_SUFFIX, avgVelocity, priceKm, consumo, autonomia, posX, posY);
+        } else {
+            return null;
         }
     }
 
-    private static Aluguer buildAluguer(UMCarroJa model, String[] fields) throws NoSuchUser {
+    private static Aluguer buildAluguer(UMCarroJa model, LineTokenizer fields) throws NoSuchUser {
         Point2D.Double origin, destination;
         int nif;
-        String email = fields[0] + Parse.EMAIL_SUFFIX;
+        String email = fields.get(0) + Parse.EMAIL_SUFFIX;
 
         try {
-            nif = Integer.parseInt(fields[0]);
-            destination = new Point2D.Double(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+            nif = fields.getInt(0);
+            destination = new Point2D.Double(fields.getDouble(1), fields.getDouble(2));
         } catch (InputMismatchException | NumberFormatException e) {
             return null;
         }
 
         if (model.existsClient(email)) {
-            origin = model.getClient(email).getPosition();
+            origin = model.viewClient(email).getPosition();
         } else {
             throw new NoSuchUser("No client associated with NIF");
         }
 
-        return new Aluguer(nif, email, origin, destination, fields[3], fields[4]);
+        return new Aluguer(nif, email, origin, destination, fields.get(3), fields.get(4));
     }
 
-    private static void classificar(UMCarroJa model, String[] fields) throws InputMismatchException {
+    private static void classificar(UMCarroJa model, LineTokenizer fields) throws InputMismatchException {
         try {
-            int nif = Integer.parseInt(fields[0]);
-            double rating = Double.parseDouble(fields[1]);
+            int nif = fields.getInt(0);
+            double rating = fields.getDouble(1);
             String email = "" + nif + Parse.EMAIL_SUFFIX;
             if (model.existsClient(email)) {
                 model.addRatingToClient(rating, email);
@@ -227,11 +417,19 @@ public class Parse {
                 model.addRatingToOwner(rating, email);
             }
         } catch (InputMismatchException | NumberFormatException e) {
-            String matricula = fields[0];
-            double ratingCarro = Double.parseDouble(fields[1]);
+            String matricula = fields.get(0);
+            double ratingCarro = fields.getDouble(1);
             if (model.existsTransport(matricula)) {
                 model.addRatingToTransport(ratingCarro, matricula);
             }
         }
     }
+
+    /**
+     * Lines of a segment of the log, with the entities built from them
+     */
+    private static class Batch {
+        private final List<String> lines = new ArrayList<>();
+        private final List<Object> entities = new ArrayList<>();
+    }
 }
@@ -0,0 +1,467 @@
+package util;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map (hash array mapped trie) whose updates return a new map that shares
+ * every untouched node with the previous version, so keeping old versions around is O(1).
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>>, Serializable {
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    public static <K, V> PersistentMap<K, V> of(Map<K, V> map) {
+        PersistentMap<K, V> ret = PersistentMap.empty();
+
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            ret = ret.put(entry.getKey(), entry.getValue());
+        }
+
+        return ret;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public V get(Object key) {
+        return this.root == null ? null : this.root.get(key, PersistentMap.hash(key), 0);
+    }
+
+    public boolean containsKey(Object key) {
+        return this.root != null && this.root.find(key, PersistentMap.hash(key), 0) != null;
+    }
+
+    /**
+     * Returns a map with the given mapping added (or replaced).
+     *
+     * @param key   Key
+     * @param value Value
+     * @return New version of the map
+     */
+    public PersistentMap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        int hash = PersistentMap.hash(key);
+        Node<K, V> root = this.root == null
+                ? BitmapNode.<K, V>empty().put(new Leaf<>(key, value, hash), 0, added)
+                : this.root.put(new Leaf<>(key, value, hash), 0, added);
+
+        return root == this.root ? this : new PersistentMap<>(root, added[0] ? this.size + 1 : this.size);
+    }
+
+    /**
+     * Returns a map without the mapping for the given key.
+     *
+     * @param key Key
+     * @return New version of the map (or this one when the key is absent)
+     */
+    public PersistentMap<K, V> remove(Object key) {
+        if (this.root == null) return this;
+
+        Node<K, V> root = this.root.remove(key, PersistentMap.hash(key), 0);
+
+        return root == this.root ? this : new PersistentMap<>(root, this.size - 1);
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Map.Entry<K, V> entry : this) {
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Runs an action on each mapping of this map that is not in an older version of it: keys added, or
+     * values replaced by a different object. Subtrees shared by both versions are skipped, so the cost
+     * depends on how much changed rather than on the size of the map. Removed keys are not reported.
+     *
+     * @param older  Older version of this map
+     * @param action Action to run on each changed mapping
+     */
+    public void forEachChangedSince(PersistentMap<K, V> older, BiConsumer<? super K, ? super V> action) {
+        PersistentMap.changed(this.root, older.root, older, action);
+    }
+
+    /**
+     * Read-only view of the values of this version of the map.
+     *
+     * @return Values
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                Iterator<Map.Entry<K, V>> entries = PersistentMap.this.iterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return entries.next().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PersistentMap.this.size;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(this.root);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void changed(Object slot, Object oldSlot, PersistentMap<K, V> older,
+                                       BiConsumer<? super K, ? super V> action) {
+        if (slot == oldSlot || slot == null) return;
+
+        if (slot instanceof Leaf) {
+            Leaf<K, V> leaf = (Leaf<K, V>) slot;
+            if (older.get(leaf.key) != leaf.value) action.accept(leaf.key, leaf.value);
+        } else if (slot instanceof BitmapNode && oldSlot instanceof BitmapNode) {
+            /* Nodes at the same depth cover the same hash prefixes, so their slots can be paired */
+            BitmapNode<K, V> node = (BitmapNode<K, V>) slot;
+            BitmapNode<K, V> old = (BitmapNode<K, V>) oldSlot;
+            for (int bits = node.bitmap; bits != 0; bits &= bits - 1) {
+                int bit = Integer.lowestOneBit(bits);
+                Object child = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+                Object oldChild = (old.bitmap & bit) == 0 ? null : old.slots[Integer.bitCount(old.bitmap & (bit - 1))];
+                PersistentMap.changed(child, oldChild, older, action);
+            }
+        } else {
+            Node<K, V> node = (Node<K, V>) slot;
+            for (int i = 0; i < node.arity(); i++) PersistentMap.changed(node.slot(i), null, older, action);
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private interface Node<K, V> extends Serializable {
+        V get(Object key, int hash, int shift);
+
+        Leaf<K, V> find(Object key, int hash, int shift);
+
+        Node<K, V> put(Leaf<K, V> leaf, int shift, boolean[] added);
+
+        /* Returns 'null' when the node becomes empty */
+        Node<K, V> remove(Object key, int hash, int shift);
+
+        int arity();
+
+        Object slot(int i);
+    }
+
+    private static final class Leaf<K, V> implements Map.Entry<K, V>, Serializable {
+        private final K key;
+        private final V value;
+        private final int hash;
+
+        private Leaf(K key, V value, int hash) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public K getKey() {
+            return this.key;
+        }
+
+        @Override
+        public V getValue() {
+            return this.value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class BitmapNode<K, V> implements Node<K, V> {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private static <K, V> BitmapNode<K, V> empty() {
+            return new BitmapNode<>(0, new Object[0]);
+        }
+
+        @Override
+        public V get(Object key, int hash, int shift) {
+            Leaf<K, V> leaf = this.find(key, hash, shift);
+            return leaf == null ? null : leaf.value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Leaf<K, V> find(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.bitmap & bit) == 0) return null;
+
+            Object o = this.slots[Integer.bitCount(this.bitmap & (bit - 1))];
+            if (o instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) o;
+                return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+            }
+
+            return ((Node<K, V>) o).find(key, hash, shift + BITS);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> put(Leaf<K, V> leaf, int shift, boolean[] added) {
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int idx = Integer.bitCount(this.bitmap & (bit - 1));
+
+            if ((this.bitmap & bit) == 0) {
+                Object[] slots = new Object[this.slots.length + 1];
+                System.arraycopy(this.slots, 0, slots, 0, idx);
+                slots[idx] = leaf;
+                System.arraycopy(this.slots, idx, slots, idx + 1, this.slots.length - idx);
+                added[0] = true;
+                return new BitmapNode<>(this.bitmap | bit, slots);
+            }
+
+            Object o = this.slots[idx];
+            Object replacement;
+            if (o instanceof Leaf) {
+                Leaf<K, V> current = (Leaf<K, V>) o;
+                if (current.hash == leaf.hash && current.key.equals(leaf.key)) {
+                    if (current.value == leaf.value) return this;
+                    replacement = leaf;
+                } else {
+                    replacement = BitmapNode.merge(current, leaf, shift + BITS);
+                    added[0] = true;
+                }
+            } else {
+                Node<K, V> child = (Node<K, V>) o;
+                replacement = child.put(leaf, shift + BITS, added);
+                if (replacement == child) return this;
+            }
+
+            Object[] slots = this.slots.clone();
+            slots[idx] = replacement;
+            return new BitmapNode<>(this.bitmap, slots);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.bitmap & bit) == 0) return this;
+
+            int idx = Integer.bitCount(this.bitmap & (bit - 1));
+            Object o = this.slots[idx];
+            Object replacement;
+
+            if (o instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) o;
+                if (leaf.hash != hash || !leaf.key.equals(key)) return this;
+                replacement = null;
+            } else {
+                Node<K, V> child = (Node<K, V>) o;
+                Node<K, V> node = child.remove(key, hash, shift + BITS);
+                if (node == child) return this;
+                /* A node left with a single leaf is replaced by the leaf itself */
+                replacement = node != null && node.arity() == 1 && node.slot(0) instanceof Leaf ? node.slot(0) : node;
+            }
+
+            if (replacement != null) {
+                Object[] slots = this.slots.clone();
+                slots[idx] = replacement;
+                return new BitmapNode<>(this.bitmap, slots);
+            }
+
+            if (this.slots.length == 1) return null;
+
+            Object[] slots = new Object[this.slots.length - 1];
+            System.arraycopy(this.slots, 0, slots, 0, idx);
+            System.arraycopy(this.slots, idx + 1, slots, idx, slots.length - idx);
+            return new BitmapNode<>(this.bitmap & ~bit, slots);
+        }
+
+        @Override
+        public int arity() {
+            return this.slots.length;
+        }
+
+        @Override
+        public Object slot(int i) {
+            return this.slots[i];
+        }
+
+        private static <K, V> Node<K, V> merge(Leaf<K, V> a, Leaf<K, V> b, int shift) {
+            if (shift >= Integer.SIZE) return new CollisionNode<>(new Object[]{a, b});
+
+            int bitA = (a.hash >>> shift) & MASK;
+            int bitB = (b.hash >>> shift) & MASK;
+
+            if (bitA == bitB) {
+                return new BitmapNode<>(1 << bitA, new Object[]{BitmapNode.merge(a, b, shift + BITS)});
+            }
+
+            Object[] slots = bitA < bitB ? new Object[]{a, b} : new Object[]{b, a};
+            return new BitmapNode<>((1 << bitA) | (1 << bitB), slots);
+        }
+    }
+
+    /* Leaves whose keys share the exact same hash */
+    private static final class CollisionNode<K, V> implements Node<K, V> {
+        private final Object[] leaves;
+
+        private CollisionNode(Object[] leaves) {
+            this.leaves = leaves;
+        }
+
+        @Override
+        public V get(Object key, int hash, int shift) {
+            Leaf<K, V> leaf = this.find(key, hash, shift);
+            return leaf == null ? null : leaf.value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Leaf<K, V> find(Object key, int hash, int shift) {
+            for (Object o : this.leaves) {
+                Leaf<K, V> leaf = (Leaf<K, V>) o;
+                if (leaf.key.equals(key)) return leaf;
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> put(Leaf<K, V> leaf, int shift, boolean[] added) {
+            for (int i = 0; i < this.leaves.length; i++) {
+                Leaf<K, V> current = (Leaf<K, V>) this.leaves[i];
+                if (current.key.equals(leaf.key)) {
+                    if (current.value == leaf.value) return this;
+                    Object[] leaves = this.leaves.clone();
+                    leaves[i] = leaf;
+                    return new CollisionNode<>(leaves);
+                }
+            }
+
+            Object[] leaves = Arrays.copyOf(this.leaves, this.leaves.length + 1);
+            leaves[this.leaves.length] = leaf;
+            added[0] = true;
+            return new CollisionNode<>(leaves);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> remove(Object key, int hash, int shift) {
+            for (int i = 0; i < this.leaves.length; i++) {
+                if (((Leaf<K, V>) this.leaves[i]).key.equals(key)) {
+                    if (this.leaves.length == 1) return null;
+                    Object[] leaves = new Object[this.leaves.length - 1];
+                    System.arraycopy(this.leaves, 0, leaves, 0, i);
+                    System.arraycopy(this.leaves, i + 1, leaves, i, leaves.length - i);
+                    return new CollisionNode<>(leaves);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public int arity() {
+            return this.leaves.length;
+        }
+
+        @Override
+        public Object slot(int i) {
+            return this.leaves[i];
+        }
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Deque<Node<K, V>> nodes;
+        private final Deque<Integer> positions;
+        private Leaf<K, V> next;
+
+        private EntryIterator(Node<K, V> root) {
+            this.nodes = new ArrayDeque<>();
+            this.positions = new ArrayDeque<>();
+            if (root != null) {
+                this.nodes.push(root);
+                this.positions.push(0);
+            }
+            this.advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            this.next = null;
+
+            while (this.next == null && !this.nodes.isEmpty()) {
+                Node<K, V> node = this.nodes.peek();
+                int i = this.positions.pop();
+
+                if (i >= node.arity()) {
+                    this.nodes.pop();
+                    continue;
+                }
+
+                this.positions.push(i + 1);
+                Object o = node.slot(i);
+                if (o instanceof Leaf) {
+                    this.next = (Leaf<K, V>) o;
+                } else {
+                    this.nodes.push((Node<K, V>) o);
+                    this.positions.push(0);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (this.next == null) throw new NoSuchElementException();
+
+            Leaf<K, V> ret = this.next;
+            this.advance();
+            return ret;
+        }
+    }
+}
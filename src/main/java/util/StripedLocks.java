@@ -0,0 +1,43 @@
+package util;
+
+import java.io.Serializable;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared by keys according to their hash, so that operations on
+ * different keys rarely contend while memory stays bounded regardless of the number of keys.
+ */
+public class StripedLocks implements Serializable {
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] stripes;
+
+    public StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes Minimum number of locks (rounded up to a power of two)
+     */
+    public StripedLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding a key.
+     *
+     * @param key Key
+     * @return Lock shared by every key that maps to the same stripe
+     */
+    public Lock get(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return this.stripes[h & (this.stripes.length - 1)];
+    }
+}
@@ -44,6 +44,8 @@ public class IO {
             "Consult rent history",
             "Pending Tasks",
             "Transport total income",
+            "Owner total income",
+            "Change transport price",
             "Logout",
             "Exit",
     };
@@ -4,6 +4,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.awt.geom.Point2D;
+import java.time.LocalDateTime;
+import java.util.List;
+
 public class ClientTest {
     private Client client;
     private Transport transport;
@@ -23,4 +27,62 @@ public class ClientTest {
     public void withinRange() {
         Assert.assertTrue(client.isWithinRange(transport, 11));
     }
+
+    @Test
+    public void rentsBetweenDates() {
+        LocalDateTime start = LocalDateTime.of(2019, 5, 1, 12, 0);
+        for (int day : new int[]{3, 1, 5, 2, 4, 5}) {
+            this.client.addAluguer(new Aluguer(999999999, "nelson@estevao.xyz", start.plusDays(day), day,
+                    new Point2D.Double(0, 0), new Point2D.Double(1, 1), "Electrico", "MaisPerto"));
+        }
+
+        List<Aluguer> rents = this.client.viewRentsBetween(start.plusDays(2), start.plusDays(5));
+        Assert.assertEquals(2, rents.size());
+        Assert.assertEquals(start.plusDays(3), rents.get(0).getDate());
+        Assert.assertEquals(start.plusDays(4), rents.get(1).getDate());
+
+        Assert.assertEquals(6, this.client.viewRentsBetween(start, start.plusDays(6)).size());
+        Assert.assertTrue(this.client.viewRentsBetween(start.plusDays(5), start).isEmpty());
+        for (int i = 1; i < this.client.viewRents().size(); i++) {
+            Assert.assertFalse(this.client.viewRents().get(i - 1).getDate().isAfter(this.client.viewRents().get(i).getDate()));
+        }
+    }
+
+    @Test
+    public void runningTotalsMatchFullRecomputation() {
+        boolean verification = Aggregates.isVerification();
+        Aggregates.setVerification(true);
+        try {
+            for (int i = 1; i <= 10; i++) {
+                Aluguer aluguer = new Aluguer(999999999, "nelson@estevao.xyz", new Point2D.Double(0, 0),
+                        new Point2D.Double(i, 0), "Electrico", "MaisPerto");
+                this.client.addRating(i);
+                this.client.addAluguer(aluguer);
+                this.transport.addRating(i);
+                this.transport.addAluguer(aluguer);
+                Assert.assertEquals(i * (i + 1) / 2.0, this.client.travelledKms(), 1e-9);
+            }
+
+            Assert.assertEquals(5.5, this.client.calculateRating(), 1e-9);
+            Assert.assertEquals(55, this.client.clone().travelledKms(), 1e-9);
+            Assert.assertEquals(55, this.transport.travelledKms(), 1e-9);
+            Assert.assertEquals(5.5, this.transport.getRating(), 1e-9);
+        } finally {
+            Aggregates.setVerification(verification);
+        }
+    }
+
+    @Test
+    public void verificationDetectsWrongTotals() {
+        boolean verification = Aggregates.isVerification();
+        Aggregates.setVerification(true);
+        try {
+            Aggregates.check("Total", "test", 1, () -> 2);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // Esperado
+        } finally {
+            Aggregates.setVerification(verification);
+        }
+    }
 }
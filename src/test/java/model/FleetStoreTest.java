@@ -0,0 +1,108 @@
+package model;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+public class FleetStoreTest {
+    private FleetStore store;
+
+    @Before
+    public void setUp() {
+        this.store = this.newStore();
+    }
+
+    FleetStore newStore() {
+        return new HeapFleetStore();
+    }
+
+    @Test
+    public void columnsKeepWhatWasWritten() {
+        int slot = this.store.allocate(FleetStore.HYBRID);
+        LocalDateTime time = LocalDateTime.of(2019, 5, 20, 14, 30, 15, 123456789);
+
+        this.store.setPosition(slot, -12.5, 40.25);
+        this.store.setPriceKm(slot, 1.75);
+        this.store.setAutonomy(slot, 320);
+        this.store.setAvailableAt(slot, time);
+
+        Assert.assertEquals(-12.5, this.store.x(slot), 0);
+        Assert.assertEquals(40.25, this.store.y(slot), 0);
+        Assert.assertEquals(1.75, this.store.priceKm(slot), 0);
+        Assert.assertEquals(320, this.store.autonomy(slot), 0);
+        Assert.assertEquals(FleetStore.HYBRID, this.store.type(slot));
+        Assert.assertEquals(time, this.store.availableAt(slot));
+
+        this.store.setAvailableAt(slot, null);
+        Assert.assertNull(this.store.availableAt(slot));
+    }
+
+    @Test
+    public void slotsSpanSeveralPages() {
+        int n = 2 * FleetStore.PAGE_SIZE + 10;
+        int[] slots = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            slots[i] = this.store.allocate(FleetStore.CAR);
+            this.store.setAutonomy(slots[i], i);
+        }
+
+        Set<Integer> distinct = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            Assert.assertTrue(distinct.add(slots[i]));
+            Assert.assertEquals(i, this.store.autonomy(slots[i]), 0);
+        }
+        Assert.assertEquals(n, this.store.allocated());
+    }
+
+    @Test
+    public void freedSlotsAreReused() {
+        int first = this.store.allocate(FleetStore.CAR);
+        this.store.allocate(FleetStore.CAR);
+        this.store.free(first);
+
+        Assert.assertEquals(1, this.store.allocated());
+        Assert.assertEquals(first, this.store.allocate(FleetStore.HYBRID));
+        Assert.assertEquals(FleetStore.HYBRID, this.store.type(first));
+    }
+
+    @Test
+    public void availabilityIsComparedToTheNanosecond() {
+        int slot = this.store.allocate(FleetStore.CAR);
+        LocalDateTime time = LocalDateTime.of(2019, 5, 20, 14, 30, 15, 500);
+        LocalDateTime now = time.plusNanos(1);
+
+        this.store.setAvailableAt(slot, null);
+        Assert.assertTrue(this.store.isAvailableBefore(slot, FleetStore.epochSecond(now), now.getNano()));
+
+        this.store.setAvailableAt(slot, time);
+        Assert.assertTrue(this.store.isAvailableBefore(slot, FleetStore.epochSecond(now), now.getNano()));
+        Assert.assertFalse(this.store.isAvailableBefore(slot, FleetStore.epochSecond(time), time.getNano()));
+        Assert.assertFalse(this.store.isAvailableBefore(slot, FleetStore.epochSecond(time.minusSeconds(1)), 999));
+    }
+
+    @Test
+    public void copiesOfATransportAreIndependent() {
+        Transport transport = new Car("Fiat", "AA-00-00", 123456789, "123456789@gmail.com", 50, 1.5, 0.5, 500, 3, 4);
+        transport.setAvailableAt(LocalDateTime.of(2019, 5, 20, 14, 30));
+        Transport copy = transport.clone();
+
+        copy.setAutonomy(10);
+        copy.setPriceKm(3);
+        copy.setAvailableAt(null);
+        copy.setPosition(new Point2D.Double(7, 8));
+
+        Assert.assertNotEquals(transport.slot(), copy.slot());
+        Assert.assertEquals(500, transport.getAutonomy(), 0);
+        Assert.assertEquals(1.5, transport.getPriceKm(), 0);
+        Assert.assertEquals(LocalDateTime.of(2019, 5, 20, 14, 30), transport.getAvailableAt());
+        Assert.assertEquals(3, transport.getPosX(), 0);
+        Assert.assertEquals(4, transport.getPosY(), 0);
+        Assert.assertEquals(7, copy.getPosX(), 0);
+    }
+}
@@ -0,0 +1,80 @@
+package model;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class FleetTest {
+    private Fleet fleet;
+    private Set<Transport> transports;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        this.fleet = new Fleet();
+        this.transports = new TreeSet<>();
+        this.random = new Random(7);
+
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble() * 200 - 100, y = random.nextDouble() * 200 - 100;
+            double priceKm = 1 + random.nextInt(5);
+            Transport transport = i % 3 == 0
+                    ? new Hybrid("Toyota", "HB-" + i, 123456789, "123456789@gmail.com", 50, priceKm, 500, 0.5, x, y)
+                    : new Car("Fiat", "AA-" + i, 123456789, "123456789@gmail.com", 50, priceKm, 0.5, 500, x, y);
+            transport.setAutonomy(random.nextDouble() * 500);
+            if (i % 7 == 0) transport.setAvailableAt(LocalDateTime.now().plusHours(1));
+            this.transports.add(transport);
+            this.fleet.update(transport);
+        }
+    }
+
+    @Test
+    public void ofTypeMatchesInstanceOf() {
+        Set<String> expected = new TreeSet<>();
+        for (Transport transport : this.transports) {
+            if (transport instanceof Car) expected.add(transport.getId());
+        }
+
+        Assert.assertEquals(expected, this.ids(this.fleet.ofType(FleetStore.CAR)));
+    }
+
+    @Test
+    public void availableFollowsChangesToTheTransports() {
+        Set<String> expected = new TreeSet<>();
+        for (Transport transport : this.transports) {
+            if (transport instanceof Hybrid && transport.isAvailable() && transport.hasAutonomy(250)) {
+                expected.add(transport.getId());
+            }
+        }
+
+        Assert.assertEquals(expected, this.ids(this.fleet.available(FleetStore.HYBRID, LocalDateTime.now(), 250)));
+
+        Transport first = this.transports.stream().filter(t -> t instanceof Hybrid && t.isAvailable()).findFirst().get();
+        first.setAutonomy(0);
+        expected.remove(first.getId());
+
+        Assert.assertEquals(this.transports.size(), this.fleet.size());
+        Assert.assertEquals(expected, this.ids(this.fleet.available(FleetStore.HYBRID, LocalDateTime.now(), 250)));
+    }
+
+    private Set<String> ids(List<Transport> transports) {
+        return transports.stream().map(Transport::getId).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    @Test
+    public void busyTransportIsNotAvailable() {
+        Transport transport = new Car("Fiat", "ZZ-1", 123456789, "123456789@gmail.com", 50, 0.1, 0.5, 500, 0, 0);
+        this.fleet.update(transport);
+
+        Assert.assertTrue(this.fleet.available(FleetStore.CAR, LocalDateTime.now(), 0).contains(transport));
+
+        transport.setAvailableAt(LocalDateTime.now().plusMinutes(10));
+
+        Assert.assertFalse(this.fleet.available(FleetStore.CAR, LocalDateTime.now(), 0).contains(transport));
+        Assert.assertTrue(this.fleet.available(FleetStore.CAR, LocalDateTime.now().plusMinutes(20), 0).contains(transport));
+    }
+}
@@ -0,0 +1,9 @@
+package model;
+
+public class OffHeapFleetStoreTest extends FleetStoreTest {
+
+    @Override
+    FleetStore newStore() {
+        return new OffHeapFleetStore();
+    }
+}
@@ -0,0 +1,48 @@
+package model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class RatingStoreTest {
+
+    @Test
+    public void meanFollowsAddedRatings() {
+        RatingStore store = new RatingStore();
+        Assert.assertTrue(Double.isNaN(store.mean()));
+
+        for (int i = 1; i <= 100; i++)
+            store.add(i);
+
+        Assert.assertEquals(100, store.size());
+        Assert.assertEquals(50.5, store.mean(), 1e-9);
+        Assert.assertEquals(store.recomputeSum(), store.sum(), 1e-9);
+        Assert.assertEquals(Arrays.asList(1.0, 2.0, 3.0), store.asList().subList(0, 3));
+    }
+
+    @Test
+    public void percentilesAreWithinOnePoint() {
+        RatingStore store = new RatingStore(new double[]{10, 20, 30, 40, 50});
+
+        Assert.assertEquals(30, store.percentile(0.5), 1);
+        Assert.assertEquals(10, store.percentile(0), 1);
+        Assert.assertEquals(50, store.percentile(1), 1);
+
+        for (int i = 0; i < 95; i++)
+            store.add(90);
+
+        Assert.assertEquals(90, store.percentile(0.5), 1);
+    }
+
+    @Test
+    public void copiesAreIndependent() {
+        RatingStore store = new RatingStore(new double[]{70, 80});
+        RatingStore copy = new RatingStore(store);
+
+        copy.add(90);
+        Assert.assertEquals(2, store.size());
+        Assert.assertNotEquals(store, copy);
+        Assert.assertEquals(new RatingStore(Arrays.asList(70.0, 80.0)), store);
+    }
+}
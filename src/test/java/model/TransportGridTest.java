@@ -0,0 +1,107 @@
+package model;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.util.*;
+
+public class TransportGridTest {
+    private TransportGrid grid;
+    private Set<Transport> transports;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        this.grid = new TransportGrid(3);
+        this.transports = new TreeSet<>();
+        this.random = new Random(42);
+
+        for (int i = 0; i < 500; i++) {
+            Transport transport = new Car("Fiat", "AA-" + i, 123456789, "123456789@gmail.com", 50, 1 + random.nextDouble(),
+                    0.5, 500, random.nextDouble() * 200 - 100, random.nextDouble() * 200 - 100);
+            this.transports.add(transport);
+            this.grid.update(transport);
+        }
+    }
+
+    @Test
+    public void closestMatchesLinearScan() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Client client = new Client("Nelson", 999999999, "nelson@estevao.xyz", "Braga",
+                    random.nextDouble() * 300 - 150, random.nextDouble() * 300 - 150);
+
+            Transport expected = client.getClosestCar(this.transports);
+            Transport result = this.grid.closest(client.getPosition(), t -> true);
+
+            Assert.assertEquals(expected.getId(), result.getId());
+        }
+    }
+
+    @Test
+    public void nearestMatchesSortedDistances() {
+        Point2D.Double position = new Point2D.Double(12, -7);
+        List<Transport> expected = new ArrayList<>(this.transports);
+        expected.sort(Comparator.comparingDouble((Transport t) -> position.distance(t.getPosition()))
+                .thenComparing(Transport::getId));
+
+        List<Transport> result = this.grid.nearest(position, 10, t -> true);
+
+        Assert.assertEquals(10, result.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(expected.get(i).getId(), result.get(i).getId());
+        }
+    }
+
+    @Test
+    public void withinRangeMatchesLinearScan() {
+        Client client = new Client("Nelson", 999999999, "nelson@estevao.xyz", "Braga", 20, 30);
+        Set<String> expected = new TreeSet<>();
+
+        for (Transport transport : this.transports) {
+            if (client.isWithinRange(transport, 25)) expected.add(transport.getId());
+        }
+
+        Set<String> result = new TreeSet<>();
+        this.grid.withinRange(client.getPosition(), 25, t -> true).forEach(t -> result.add(t.getId()));
+
+        Assert.assertEquals(expected, result);
+    }
+
+    @Test
+    public void closestAfterMove() {
+        Transport transport = this.transports.iterator().next();
+        transport.setPosition(new Point2D.Double(500, 500));
+        this.grid.update(transport);
+
+        Assert.assertEquals(transport.getId(), this.grid.closest(new Point2D.Double(499, 499), t -> true).getId());
+        Assert.assertEquals(500, this.grid.size());
+    }
+
+    @Test(timeout = 5000)
+    public void closestToFarAwayClient() throws Exception {
+        Client client = new Client("Nelson", 999999999, "nelson@estevao.xyz", "Braga", 1e6, -1e6);
+
+        Assert.assertEquals(client.getClosestCar(this.transports).getId(),
+                this.grid.closest(client.getPosition(), t -> true).getId());
+    }
+
+    @Test(timeout = 5000)
+    public void boundsShrinkWhenTransportsLeave() throws Exception {
+        Transport far = new Car("Fiat", "ZZ-1", 123456789, "123456789@gmail.com", 50, 1, 0.5, 500, 1e6, 1e6);
+        this.grid.update(far);
+        this.grid.remove(far.getId());
+
+        Client client = new Client("Nelson", 999999999, "nelson@estevao.xyz", "Braga", -1e6, -1e6);
+        List<Transport> result = this.grid.nearest(client.getPosition(), 3, t -> true);
+
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals(client.getClosestCar(this.transports).getId(), result.get(0).getId());
+    }
+
+    @Test
+    public void closestWithFilter() {
+        Assert.assertNull(this.grid.closest(new Point2D.Double(0, 0), t -> false));
+    }
+}
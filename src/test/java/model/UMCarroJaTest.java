@@ -1,11 +1,16 @@
 package model;
 
+import exceptions.NoAvailableTransport;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import util.ImportStats;
 import util.Parse;
 
 import java.awt.geom.Point2D;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
 
 public class UMCarroJaTest {
     private UMCarroJa model;
@@ -30,4 +35,199 @@ public class UMCarroJaTest {
 
         Assert.assertEquals(price, result, 0.1);
     }
+
+    @Test
+    public void incomeBetweenDates() {
+        Transport transport = this.model.viewTransport("CZ-73-82");
+        double before = transport.getIncomeBetween(LocalDateTime.MIN, LocalDateTime.MAX);
+        LocalDateTime start = LocalDateTime.of(2019, 5, 1, 12, 0);
+
+        /* Fora de ordem, depois de o índice já existir */
+        for (int day : new int[]{3, 1, 5, 2, 4}) {
+            Aluguer aluguer = new Aluguer(333222111, "333222111@gmail.com", start.plusDays(day), day,
+                    new Point2D.Double(0, 0), new Point2D.Double(1, 1), "Electrico", "MaisPerto");
+            this.model.addAluguerToTransport(aluguer, transport.getId());
+            this.model.addAluguerToOwner(aluguer, transport.getEmail());
+        }
+
+        Transport updated = this.model.viewTransport("CZ-73-82");
+        Assert.assertEquals(3 + 4, updated.getIncomeBetween(start.plusDays(2), start.plusDays(5)), 1e-9);
+        Assert.assertEquals(before + 15, updated.getIncomeBetween(LocalDateTime.MIN, LocalDateTime.MAX), 1e-9);
+        Assert.assertEquals(0, updated.getIncomeBetween(start.plusDays(5), start.plusDays(1)), 1e-9);
+
+        Owner owner = this.model.viewOwner(transport.getEmail());
+        double expected = 0;
+        for (Aluguer aluguer : owner.viewRents()) {
+            if (aluguer.getDate().isAfter(start) && aluguer.getDate().isBefore(start.plusDays(4))) expected += aluguer.getPrice();
+        }
+        Assert.assertEquals(1 + 2 + 3, expected, 1e-9);
+        Assert.assertEquals(expected, owner.getIncomeBetween(start, start.plusDays(4)), 1e-9);
+    }
+
+    @Test
+    public void leaderboardsFollowNewRents() {
+        this.model.getTopClientsBy(3, "performedRents");
+
+        Client client = this.model.viewClients().iterator().next();
+        for (int i = 0; i < 5; i++) {
+            this.model.addAluguerToClient(new Aluguer(client.getNif(), client.getEmail(), new Point2D.Double(0, 0),
+                    new Point2D.Double(1000, 0), "Electrico", "MaisPerto"), client.getEmail());
+        }
+
+        for (String criteria : new String[]{"performedRents", "travelledKms"}) {
+            List<Client> expected = new ArrayList<>(this.model.viewClients());
+            Comparator<Client> order = criteria.equals("performedRents")
+                    ? Comparator.comparingDouble(Client::performedRents) : Comparator.comparingDouble(Client::travelledKms);
+            expected.sort(order.reversed().thenComparing(Client::getEmail));
+
+            List<List<String>> top = this.model.getTopClientsBy(3, criteria);
+            Assert.assertEquals(Math.min(3, expected.size()), top.size());
+            Assert.assertEquals("Email: " + client.getEmail(), top.get(0).get(0));
+            for (int i = 0; i < top.size(); i++) {
+                Assert.assertEquals("Email: " + expected.get(i).getEmail(), top.get(i).get(0));
+            }
+        }
+    }
+
+    @Test(expected = NoAvailableTransport.class)
+    public void busyTransportIsNotOffered() throws NoAvailableTransport {
+        this.model.getCheapestCarNormal();
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterChanges() {
+        UMCarroJa snapshot = this.model.snapshot();
+        Transport before = snapshot.getTransport("CZ-73-82");
+
+        this.model.addRatingToTransport(100, "CZ-73-82");
+        this.model.updateLocationClient("333222111@gmail.com", new Point2D.Double(1, 1));
+
+        Assert.assertEquals(before.getRating(), snapshot.getTransport("CZ-73-82").getRating(), 0);
+        Assert.assertNotEquals(before.getRating(), this.model.getTransport("CZ-73-82").getRating(), 0);
+        Assert.assertNotEquals(new Point2D.Double(1, 1), snapshot.getClient("333222111@gmail.com").getPosition());
+    }
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws InterruptedException {
+        UMCarroJa model = new UMCarroJa();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            model.addClient(new Client("Client " + i, i, i + "@gmail.com", "Braga", i, i));
+        }
+
+        for (int i = 0; i < 8; i++) {
+            String email = i + "@gmail.com";
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    model.addRatingToClient(j % 100, email);
+                    model.addRatingToClient(j % 100, "0@gmail.com");
+                    if (j % 100 == 0) model.snapshot();
+                }
+            }));
+        }
+
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        Assert.assertEquals(8 * 500 + 500, model.getClient("0@gmail.com").getClassificacoes().size());
+        Assert.assertEquals(500, model.getClient("7@gmail.com").getClassificacoes().size());
+    }
+
+    @Test
+    public void concurrentRentsNeverShareACar() throws InterruptedException {
+        UMCarroJa model = new UMCarroJa();
+        List<Thread> threads = new ArrayList<>();
+        Set<String> reserved = Collections.synchronizedSet(new HashSet<>());
+        List<String> duplicated = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 4; i++) {
+            model.addTransport(new Car("Fiat", "AA-" + i, 123456789, "123456789@gmail.com", 50, 1, 0.5, 500, i, i));
+        }
+
+        for (int i = 0; i < 8; i++) {
+            String email = i + "@gmail.com";
+            model.addClient(new Client("Client " + i, i, email, "Braga", 0, 0));
+            threads.add(new Thread(() -> {
+                try {
+                    Transport transport = model.reserve(email, model::getClosestCarNormal);
+                    if (!reserved.add(transport.getId())) duplicated.add(transport.getId());
+                } catch (NoAvailableTransport ignored) {
+                }
+            }));
+        }
+
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        Assert.assertTrue(duplicated.isEmpty());
+        Assert.assertEquals(4, reserved.size());
+    }
+
+    @Test
+    public void reservationCanOnlyBeCommittedByItsClient() {
+        UMCarroJa model = new UMCarroJa();
+        Point2D.Double origin = new Point2D.Double(0, 0);
+        model.addTransport(new Car("Fiat", "AA-00-00", 123456789, "123456789@gmail.com", 50, 1, 0.5, 500, 0, 0));
+
+        Assert.assertFalse(this.model.reserveTransport("CZ-73-82", "a@gmail.com"));
+        Assert.assertTrue(model.reserveTransport("AA-00-00", "a@gmail.com"));
+        Assert.assertFalse(model.reserveTransport("AA-00-00", "b@gmail.com"));
+        Assert.assertFalse(model.commitReservation("AA-00-00", "b@gmail.com", origin, origin));
+        Assert.assertTrue(model.commitReservation("AA-00-00", "a@gmail.com", origin, origin));
+        Assert.assertFalse(model.isReserved("AA-00-00"));
+    }
+
+    @Test
+    public void expiredReservationIsRenewedWhenCommitted() {
+        UMCarroJa model = new UMCarroJa();
+        Point2D.Double origin = new Point2D.Double(0, 0);
+        model.addTransport(new Car("Fiat", "AA-00-00", 123456789, "123456789@gmail.com", 50, 1, 0.5, 500, 0, 0));
+        model.addTransport(new Car("Fiat", "BB-00-00", 123456789, "123456789@gmail.com", 50, 1, 0.5, 500, 0, 0));
+
+        Assert.assertTrue(model.reserveTransport("AA-00-00", "a@gmail.com", Duration.ZERO));
+        Assert.assertFalse(model.isReserved("AA-00-00"));
+        Assert.assertTrue(model.commitReservation("AA-00-00", "a@gmail.com", origin, origin));
+
+        Assert.assertTrue(model.reserveTransport("BB-00-00", "a@gmail.com", Duration.ZERO));
+        Assert.assertTrue(model.reserveTransport("BB-00-00", "b@gmail.com"));
+        Assert.assertFalse(model.commitReservation("BB-00-00", "a@gmail.com", origin, origin));
+    }
+
+    @Test
+    public void cheapestInWalkRangeMatchesLinearScan() throws NoAvailableTransport {
+        UMCarroJa model = new UMCarroJa();
+        Random random = new Random(3);
+        Client client = new Client("Nelson", 999999999, "nelson@estevao.xyz", "Braga", 0, 0);
+        model.addClient(client);
+        for (int i = 0; i < 200; i++) {
+            model.addTransport(new Car("Fiat", "AA-" + i, 123456789, "123456789@gmail.com", 50, 1 + random.nextInt(5),
+                    0.5, 500, random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50));
+        }
+
+        Transport expected = client.getCheapestTransportInWalkRange(model.getCarsNormal(), 20);
+        Transport result = model.getCheapestCarNormalInWalkRange(client.getEmail(), 20);
+
+        Assert.assertEquals(expected.getId(), result.getId());
+    }
+
+    @Test
+    public void parallelImportMatchesSequential() {
+        UMCarroJa parallel = Parse.importDataParallel("target/test-classes/log.test", new ImportStats());
+        UMCarroJa mapped = Parse.importDataMapped("target/test-classes/log.test", new ImportStats());
+
+        Assert.assertEquals(this.model.getSize(), parallel.getSize());
+        Assert.assertEquals(this.model.getSize(), mapped.getSize());
+        Assert.assertEquals(this.model.getClient("333222111@gmail.com").getPosition(), mapped.getClient("333222111@gmail.com").getPosition());
+        for (Transport transport : this.model.viewTransports()) {
+            Transport other = parallel.viewTransport(transport.getId());
+            Assert.assertEquals(transport.toShow(), other.toShow());
+            Assert.assertEquals(transport.getAlugueres().size(), other.getAlugueres().size());
+            Assert.assertEquals(transport.getRating(), other.getRating(), 0);
+        }
+        for (Client client : this.model.viewClients()) {
+            Assert.assertEquals(client.getPosition(), parallel.viewClient(client.getEmail()).getPosition());
+            Assert.assertEquals(client.getRating(), parallel.viewClient(client.getEmail()).getRating(), 0);
+        }
+    }
 }
@@ -0,0 +1,126 @@
+package persistence;
+
+import model.*;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import util.Parse;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class DatabaseTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    @Test
+    public void changesSurviveRestart() throws Exception {
+        Database database = Database.open(this.directory);
+        database.replace(Parse.importData("target/test-classes/log.test"));
+        UMCarroJa model = database.getModel();
+
+        Transport transport = model.viewTransports().iterator().next();
+        Client client = model.viewClients().iterator().next();
+        Aluguer aluguer = new Aluguer(client.getNif(), client.getEmail(), new Point2D.Double(1, 1),
+                new Point2D.Double(5, 5), "Electrico", "MaisPerto");
+        model.addAluguerToTransport(aluguer, transport.getId());
+        model.addAluguerToClient(aluguer, client.getEmail());
+        model.updateLocationTransport(transport.getId(), new Point2D.Double(1, 1), new Point2D.Double(5, 5));
+        model.updateLocationClient(client.getEmail(), new Point2D.Double(5, 5));
+        model.addRatingToTransport(3, transport.getId());
+        model.refillTransport(transport.getId());
+        database.sync();
+
+        /* A crash in the middle of a batch leaves an incomplete record at the end of the segment */
+        Path segment = Journal.segmentPath(this.directory, 2);
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        Database reopened = Database.open(this.directory);
+        UMCarroJa recovered = reopened.getModel();
+
+        Assert.assertEquals(model.getSize(), recovered.getSize());
+        Transport expected = model.viewTransport(transport.getId());
+        Transport actual = recovered.viewTransport(transport.getId());
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals(expected.getAvailableAt(), actual.getAvailableAt());
+        Assert.assertEquals(expected.viewAlugueres().size(), actual.viewAlugueres().size());
+        Assert.assertEquals(model.viewClient(client.getEmail()).getPosition(),
+                recovered.viewClient(client.getEmail()).getPosition());
+        Assert.assertEquals(model.viewClient(client.getEmail()).viewRents().size(),
+                recovered.viewClient(client.getEmail()).viewRents().size());
+
+        reopened.checkpoint();
+        reopened.close();
+        database.close();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            Assert.assertEquals(1, files.filter(f -> f.toString().endsWith(".db")).count());
+        }
+        Assert.assertEquals(model.getSize(), Database.open(this.directory).getModel().getSize());
+    }
+
+    @Test
+    public void backgroundCheckpointFailureIsReported() throws Exception {
+        Database database = Database.open(this.directory);
+        database.getModel().addOwner(new Owner("Owner", 111222333, "111222333@gmail.com", "Braga", "password"));
+
+        /* The checkpoint after segment 1 can't replace a directory that isn't empty */
+        Path checkpoint = this.directory.resolve("checkpoint-2.db");
+        Files.createDirectories(checkpoint.resolve("busy"));
+        database.checkpointInBackground();
+
+        try {
+            database.close();
+            Assert.fail("The failed checkpoint was not reported");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Checkpoint failed"));
+        }
+
+        /* The journal still holds the change */
+        Files.delete(checkpoint.resolve("busy"));
+        Files.delete(checkpoint);
+        Assert.assertEquals(1, Database.open(this.directory).getModel().getSize());
+    }
+
+    @Test
+    public void addedEntitiesAreReplayed() throws Exception {
+        Database database = Database.open(this.directory);
+        UMCarroJa model = database.getModel();
+        Owner owner = new Owner("Owner", 111222333, "111222333@gmail.com", "password", "Braga");
+        Client client = new Client("Client", 333222111, "333222111@gmail.com", "password", "Porto", 3, 4);
+        Transport transport = new Hybrid("Toyota", "HB-01-01", 111222333, "111222333@gmail.com", 50, 2, 500, 0.5, 1, 2);
+        model.addOwner(owner);
+        model.addClient(client);
+        model.addTransport(transport);
+        model.addNotificationToOwner(new RentNotification(333222111, "HB-01-01", "333222111@gmail.com",
+                "MaisPerto", new Point2D.Double(1, 2), 10, 0.5), owner.getEmail());
+        model.addNotificationToClient(new RatingNotification("HB-01-01", RatingNotification.CAR, 2), client.getEmail());
+        database.close();
+
+        UMCarroJa recovered = Database.open(this.directory).getModel();
+
+        Assert.assertEquals(transport.toString(), recovered.viewTransport(transport.getId()).toString());
+        Assert.assertEquals(client.getHashedPassword(), recovered.viewClient(client.getEmail()).getHashedPassword());
+        Assert.assertEquals(client.getPosition(), recovered.viewClient(client.getEmail()).getPosition());
+        Assert.assertEquals(model.viewOwner(owner.getEmail()).viewPendingTasks().get(0).toShow(),
+                recovered.viewOwner(owner.getEmail()).viewPendingTasks().get(0).toShow());
+        Assert.assertEquals(model.viewClient(client.getEmail()).viewPendingTasks().get(0).toShow(),
+                recovered.viewClient(client.getEmail()).viewPendingTasks().get(0).toShow());
+    }
+}
@@ -0,0 +1,182 @@
+package persistence;
+
+import model.*;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import util.Codec;
+import util.Compression;
+import util.LazyList;
+import util.Parse;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+public class SnapshotsTest {
+    private UMCarroJa model;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        this.model = Parse.importData("target/test-classes/log.test");
+        this.model.addNotificationToOwner(new RentNotification(333222111, "CZ-73-82", "333222111@gmail.com",
+                "MaisPerto", new Point2D.Double(1, 2), 10, 0.5), "111222333@gmail.com");
+        this.model.addNotificationToClient(new RatingNotification("CZ-73-82", RatingNotification.CAR, 2),
+                "333222111@gmail.com");
+        File tmp = File.createTempFile("snapshot", ".db");
+        tmp.deleteOnExit();
+        this.file = tmp.toPath();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Snapshots.save(this.model.snapshot(), this.file);
+        Assert.assertTrue(Snapshots.isSnapshot(this.file));
+
+        UMCarroJa loaded = Snapshots.load(this.file);
+
+        Assert.assertEquals(this.model.getSize(), loaded.getSize());
+        for (Transport transport : this.model.viewTransports()) {
+            Transport other = loaded.viewTransport(transport.getId());
+            Assert.assertEquals(transport.getClass(), other.getClass());
+            Assert.assertEquals(transport.toString(), other.toString());
+            Assert.assertEquals(transport.getAvailableAt(), other.getAvailableAt());
+            Assert.assertEquals(transport.viewClassificacoes(), other.viewClassificacoes());
+            Assert.assertEquals(transport.viewAlugueres().size(), other.viewAlugueres().size());
+            for (int i = 0; i < transport.viewAlugueres().size(); i++) {
+                Assert.assertEquals(transport.viewAlugueres().get(i).toString(), other.viewAlugueres().get(i).toString());
+            }
+        }
+        for (Client client : this.model.viewClients()) {
+            Client other = loaded.viewClient(client.getEmail());
+            Assert.assertEquals(client.toString(), other.toString());
+            Assert.assertEquals(client.getHashedPassword(), other.getHashedPassword());
+            Assert.assertEquals(client.getPosition(), other.getPosition());
+            Assert.assertEquals(client.viewPendingTasks().size(), other.viewPendingTasks().size());
+        }
+        Owner owner = loaded.viewOwner("111222333@gmail.com");
+        Assert.assertEquals(this.model.viewOwner("111222333@gmail.com").toString(), owner.toString());
+        Assert.assertEquals(this.model.viewOwner("111222333@gmail.com").viewPendingTasks().get(0).toShow(),
+                owner.viewPendingTasks().get(0).toShow());
+    }
+
+    @Test
+    public void compressedSnapshotIsRead() throws Exception {
+        Snapshots.save(this.model.snapshot(), this.file, Codec.DEFLATE);
+        Assert.assertTrue(Compression.isCompressed(this.file));
+        Assert.assertTrue(Snapshots.isSnapshot(this.file));
+
+        UMCarroJa loaded = Snapshots.load(this.file);
+
+        Assert.assertEquals(this.model.getSize(), loaded.getSize());
+        for (Client client : this.model.viewClients()) {
+            Client other = loaded.viewClient(client.getEmail());
+            Assert.assertEquals(client.toString(), other.toString());
+            Assert.assertEquals(client.viewRents().size(), other.viewRents().size());
+        }
+    }
+
+    @Test
+    public void recordsAreFoundByKey() throws Exception {
+        Snapshots.save(this.model.snapshot(), this.file);
+        SnapshotFile snapshot = SnapshotFile.open(this.file);
+
+        Assert.assertEquals(this.model.viewTransports().size(), snapshot.getCount(SnapshotFormat.TRANSPORTS));
+        Assert.assertNull(snapshot.findClient("nobody@gmail.com"));
+        Assert.assertEquals(this.model.viewOwner("111222333@gmail.com").toString(),
+                snapshot.findOwner("111222333@gmail.com").toString());
+
+        for (Transport transport : this.model.viewTransports()) {
+            Transport other = snapshot.findTransport(transport.getId());
+            Assert.assertEquals(transport.toString(), other.toString());
+            Assert.assertEquals(transport.viewAlugueres().size(), other.viewAlugueres().size());
+            for (int i = 0; i < transport.viewAlugueres().size(); i++) {
+                Assert.assertEquals(transport.viewAlugueres().get(i).toString(), other.viewAlugueres().get(i).toString());
+            }
+        }
+
+        LazyList<Integer> lazy = new LazyList<>(2, () -> Arrays.asList(1, 2));
+        Assert.assertEquals(2, lazy.size());
+        Assert.assertFalse(lazy.isLoaded());
+        Assert.assertEquals(Integer.valueOf(2), lazy.get(1));
+        Assert.assertTrue(lazy.isLoaded());
+    }
+
+    @Test
+    public void backgroundSaveKeepsStateOfRequest() throws Exception {
+        SaveService saves = new SaveService();
+        Transport transport = this.model.viewTransports().iterator().next();
+        int rents = transport.viewAlugueres().size();
+
+        CompletableFuture<SaveService.Result> save = saves.save(this.model, this.file);
+        this.model.addAluguerToTransport(new Aluguer(1, "a@gmail.com", 1, 1, "Electrico", "MaisPerto"), transport.getId());
+        SaveService.Result result = save.get();
+        saves.close();
+
+        Assert.assertEquals(this.file, result.getFile());
+        Assert.assertEquals(Files.size(this.file), result.getBytes());
+        Assert.assertEquals(rents, Snapshots.load(this.file).viewTransport(transport.getId()).viewAlugueres().size());
+        Assert.assertEquals(rents + 1, this.model.viewTransport(transport.getId()).viewAlugueres().size());
+    }
+
+    @Test
+    public void deltasOnlyHoldChanges() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            this.model.addClient(new Client("Client " + i, i, i + "@gmail.com", "Braga", i, -i));
+        }
+        SnapshotStore store = new SnapshotStore(this.file);
+        Transport transport = this.model.viewTransports().iterator().next();
+        Client client = this.model.viewClients().iterator().next();
+
+        Assert.assertEquals(this.file, store.save(this.model, this.model.snapshot()));
+        this.model.addAluguerToTransport(new Aluguer(1, "a@gmail.com", 1, 1, "Electrico", "MaisPerto"), transport.getId());
+        this.model.updateLocationClient(client.getEmail(), new Point2D.Double(7, 7));
+        Path delta = store.save(this.model, this.model.snapshot());
+        this.model.addRatingToTransport(4, transport.getId());
+        store.save(this.model, this.model.snapshot());
+
+        Assert.assertEquals(2, store.getDeltas());
+        Assert.assertTrue(Files.size(delta) < Files.size(this.file) / 10);
+        SnapshotFile file = SnapshotFile.open(delta);
+        Assert.assertEquals(1, file.getCount(SnapshotFormat.TRANSPORTS));
+        Assert.assertEquals(1, file.getCount(SnapshotFormat.CLIENTS));
+        Assert.assertEquals(0, file.getCount(SnapshotFormat.OWNERS));
+
+        UMCarroJa loaded = new SnapshotStore(this.file).load();
+        Transport expected = this.model.viewTransport(transport.getId());
+        Transport actual = loaded.viewTransport(transport.getId());
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals(expected.viewClassificacoes(), actual.viewClassificacoes());
+        Assert.assertEquals(expected.viewAlugueres(), actual.viewAlugueres());
+        Assert.assertEquals(new Point2D.Double(7, 7), loaded.viewClient(client.getEmail()).getPosition());
+        Assert.assertEquals(this.model.getSize(), loaded.getSize());
+
+        store.merge();
+        Assert.assertEquals(0, store.getDeltas());
+        Assert.assertFalse(Files.exists(delta));
+        Assert.assertEquals(expected.viewAlugueres(), new SnapshotStore(this.file).load()
+                .viewTransport(transport.getId()).viewAlugueres());
+    }
+
+    @Test
+    public void shippedDatabaseLoads() throws Exception {
+        UMCarroJa loaded = new SnapshotStore(Paths.get(UMCarroJa.DATABASE_PATH)).load();
+
+        Assert.assertEquals(2599, loaded.getSize());
+        Assert.assertEquals(new Point2D.Double(30, 30), loaded.viewClient("rui@gmail.com").getPosition());
+        Assert.assertEquals(1, loaded.viewTransport("AB-47-37").viewAlugueres().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void serializedFilesAreRejected() throws Exception {
+        Parse.saveObject(new ArrayList<>(), this.file.toString());
+        new SnapshotStore(this.file).load();
+    }
+}
@@ -0,0 +1,81 @@
+package util;
+
+import model.UMCarroJa;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+public class CompressionTest {
+    private static final String FILE = "target/test-classes/log.test";
+    private static final Path COMPRESSED = Paths.get("target/log.test.z");
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(COMPRESSED);
+    }
+
+    @Test
+    public void blocksRoundTripWithEveryCodec() throws Exception {
+        /* Several blocks, half of them incompressible, and a short last one */
+        byte[] data = new byte[BlockOutputStream.BLOCK_SIZE * 4 + 123];
+        Random random = new Random(7);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i / BlockOutputStream.BLOCK_SIZE) % 2 == 0 ? (byte) random.nextInt() : (byte) (i % 31);
+        }
+
+        for (Codec codec : Codec.values()) {
+            CompressionStats written = new CompressionStats();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (BlockOutputStream out = new BlockOutputStream(bytes, codec, written)) {
+                out.write(data, 0, 1000);
+                out.write(data[1000]);
+                out.write(data, 1001, data.length - 1001);
+            }
+
+            CompressionStats read = new CompressionStats();
+            try (InputStream in = new BlockInputStream(new ByteArrayInputStream(bytes.toByteArray()), read)) {
+                Assert.assertArrayEquals(codec.name(), data, in.readAllBytes());
+            }
+            Assert.assertEquals(data.length, read.getRawBytes());
+            Assert.assertEquals(written.getStoredBytes(), read.getStoredBytes());
+            if (codec != Codec.NONE) Assert.assertTrue(codec.name(), written.getRatio() > 1);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedBlockIsDetected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BlockOutputStream out = new BlockOutputStream(bytes, Codec.DEFLATE, new CompressionStats())) {
+            out.write(Files.readAllBytes(Paths.get(FILE)));
+        }
+        byte[] file = bytes.toByteArray();
+        file[file.length / 2] ^= 0x10;
+
+        try (InputStream in = new BlockInputStream(new ByteArrayInputStream(file), new CompressionStats())) {
+            in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void compressedLogImportsLikePlainOne() throws Exception {
+        CompressionStats written = Compression.compress(Paths.get(FILE), COMPRESSED, Codec.DEFLATE_DICTIONARY);
+        Assert.assertTrue(Compression.isCompressed(COMPRESSED));
+        Assert.assertTrue(Files.size(COMPRESSED) < Files.size(Paths.get(FILE)));
+
+        UMCarroJa plain = Parse.importData(FILE);
+        ImportStats stats = new ImportStats();
+        UMCarroJa compressed = Parse.importDataMapped(COMPRESSED.toString(), stats);
+
+        Assert.assertEquals(plain.getSize(), compressed.getSize());
+        Assert.assertEquals(written.getRawBytes(), stats.getCompression().getRawBytes());
+    }
+}
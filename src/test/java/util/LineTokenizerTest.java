@@ -0,0 +1,43 @@
+package util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineTokenizerTest {
+
+    @Test
+    public void fieldsMatchSplit() {
+        String[] lines = {
+                "NovoCarro:Electrico,Microcar,CZ-73-82,111222333,39,2.2007167,0.51200515,791,30.1232,-79.07995",
+                "NovoProp:Wesley,611843917,611843917@gmail.com,Fundão",
+                "Classificar:CZ-73-82,99",
+                "Aluguer:333222111,2.4826431,70.44467,Electrico,MaisBarato,,",
+                "Aluguer:1,,3:ignored",
+        };
+        LineTokenizer tokenizer = new LineTokenizer();
+
+        for (String line : lines) {
+            String[] keyword = line.split(":");
+            String[] fields = keyword[1].split(",");
+
+            Assert.assertTrue(tokenizer.reset(line));
+            Assert.assertEquals(keyword[0], tokenizer.getKeyword());
+            Assert.assertTrue(tokenizer.isKeyword(keyword[0]));
+            Assert.assertEquals(fields.length, tokenizer.size());
+            for (int i = 0; i < fields.length; i++) {
+                Assert.assertEquals(fields[i], tokenizer.get(i));
+                Assert.assertTrue(tokenizer.fieldEquals(i, fields[i]));
+            }
+        }
+    }
+
+    @Test
+    public void numbersAreParsedInPlace() {
+        LineTokenizer tokenizer = new LineTokenizer();
+
+        Assert.assertFalse(tokenizer.reset("no keyword"));
+        Assert.assertTrue(tokenizer.reset("Classificar:123456789,-7.5"));
+        Assert.assertEquals(123456789, tokenizer.getInt(0));
+        Assert.assertEquals(-7.5, tokenizer.getDouble(1), 0);
+    }
+}
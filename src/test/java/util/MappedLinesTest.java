@@ -0,0 +1,42 @@
+package util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MappedLinesTest {
+    private static final String FILE = "target/test-classes/log.test";
+
+    @Test
+    public void smallChunksAndSegmentsKeepEveryLine() throws Exception {
+        List<String> lines = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(FILE))) {
+            for (ByteBuffer chunk : MappedLines.map(channel, 300)) {
+                for (ByteBuffer segment : MappedLines.split(chunk, 64)) {
+                    MappedLines.forEachLine(segment, lines::add);
+                }
+            }
+        }
+
+        Assert.assertEquals(Files.readAllLines(Paths.get(FILE), StandardCharsets.UTF_8), lines);
+    }
+
+    @Test
+    public void linesLongerThanTheBlockAreKept() {
+        String text = "short\r\na line much longer than the block\n\nçãé\nlast without new line";
+        List<String> lines = new ArrayList<>();
+
+        MappedLines.forEachLine(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), lines::add, 4);
+
+        Assert.assertEquals(Arrays.asList("short", "a line much longer than the block", "", "çãé", "last without new line"), lines);
+    }
+}
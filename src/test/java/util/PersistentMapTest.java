@@ -0,0 +1,84 @@
+package util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PersistentMapTest {
+
+    @Test
+    public void behavesLikeHashMap() {
+        Random random = new Random(7);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 5000; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+
+        Map<Integer, Integer> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        Assert.assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void oldVersionsAreUnchanged() {
+        PersistentMap<String, Integer> v1 = PersistentMap.<String, Integer>empty().put("a", 1).put("b", 2);
+        PersistentMap<String, Integer> v2 = v1.put("a", 10).remove("b").put("c", 3);
+
+        Assert.assertEquals(2, v1.size());
+        Assert.assertEquals(Integer.valueOf(1), v1.get("a"));
+        Assert.assertEquals(Integer.valueOf(2), v1.get("b"));
+        Assert.assertFalse(v1.containsKey("c"));
+
+        Assert.assertEquals(2, v2.size());
+        Assert.assertEquals(Integer.valueOf(10), v2.get("a"));
+        Assert.assertFalse(v2.containsKey("b"));
+    }
+
+    @Test
+    public void collidingKeys() {
+        /* "Aa" and "BB" share the same hashCode */
+        PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty().put("Aa", 1).put("BB", 2);
+
+        Assert.assertEquals(Integer.valueOf(1), map.get("Aa"));
+        Assert.assertEquals(Integer.valueOf(2), map.get("BB"));
+        Assert.assertEquals(1, map.remove("Aa").size());
+        Assert.assertEquals(Integer.valueOf(2), map.remove("Aa").get("BB"));
+    }
+
+    @Test
+    public void reportsChangesSinceOlderVersion() {
+        PersistentMap<Integer, String> old = PersistentMap.empty();
+        for (int i = 0; i < 5000; i++) old = old.put(i, "v" + i);
+
+        PersistentMap<Integer, String> map = old.put(10, "changed").put(7000, "added").put(20, "v20");
+        Map<Integer, String> changed = new HashMap<>();
+        map.forEachChangedSince(old, changed::put);
+
+        Map<Integer, String> expected = new HashMap<>();
+        expected.put(10, "changed");
+        expected.put(7000, "added");
+        expected.put(20, "v20");
+        Assert.assertEquals(expected, changed);
+
+        changed.clear();
+        old.forEachChangedSince(old, changed::put);
+        Assert.assertTrue(changed.isEmpty());
+    }
+}